@@ -0,0 +1,85 @@
+package com.neyma.apiGateway.filter;
+
+import com.neyma.apiGateway.service.InstanceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+
+/**
+ * Proxies a WebSocket upgrade straight to the messagingService instance the user
+ * is assigned to, so clients keep the gateway as their single entry point while
+ * deliveries stay local to that instance. The user is taken from the
+ * Sec-WebSocket-Protocol header, like messagingService does. If the instance
+ * can't be resolved the route's own URI is used and the instance re-routes
+ * messages through Redis as before.
+ */
+@Component
+public class StickyWebSocketGatewayFilterFactory extends AbstractGatewayFilterFactory<Object> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StickyWebSocketGatewayFilterFactory.class);
+
+    private final InstanceResolver instanceResolver;
+
+    public StickyWebSocketGatewayFilterFactory(InstanceResolver instanceResolver) {
+        super(Object.class);
+        this.instanceResolver = instanceResolver;
+    }
+
+    @Override
+    public GatewayFilter apply(Object config) {
+        // Runs right after the route URI was resolved, so it can swap in the instance
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            UUID userId = extractUserId(exchange.getRequest());
+            if (userId == null) {
+                return chain.filter(exchange);
+            }
+            return instanceResolver.resolve(userId)
+                    .doOnNext(instance -> exchange.getAttributes()
+                            .put(GATEWAY_REQUEST_URL_ATTR, toInstance(exchange.getRequest(), instance)))
+                    .onErrorResume(e -> {
+                        logger.warn("Could not resolve instance for user {}: {}", userId, e.getMessage());
+                        return Mono.empty();
+                    })
+                    .then(chain.filter(exchange))
+                    .doOnError(e -> instanceResolver.evict(userId));
+        }, RouteToRequestUrlFilter.ROUTE_TO_URL_FILTER_ORDER + 1);
+    }
+
+    // Keeps the request's path and query, only scheme, host and port come from the instance
+    private static URI toInstance(ServerHttpRequest request, URI instance) {
+        return UriComponentsBuilder.fromUri(request.getURI())
+                .scheme(instance.getScheme())
+                .host(instance.getHost())
+                .port(instance.getPort())
+                .build(true)
+                .toUri();
+    }
+
+    private static UUID extractUserId(ServerHttpRequest request) {
+        List<String> protocols = request.getHeaders().get("Sec-WebSocket-Protocol");
+        if (protocols == null || protocols.isEmpty()) {
+            return null;
+        }
+        for (String token : protocols.get(0).split(",")) {
+            try {
+                return UUID.fromString(token.trim());
+            } catch (IllegalArgumentException e) {
+                // Not a UUID, try next
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.neyma.apiGateway.filter;
+
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Passes the authenticated user on to the services as X-User-Id. A header of
+ * that name sent by the client is always dropped, so services can trust it.
+ */
+@Component
+public class UserIdHeaderFilter implements GlobalFilter, Ordered {
+
+    public static final String USER_ID_HEADER = "X-User-Id";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        return ReactiveSecurityContextHolder.getContext()
+                .map(SecurityContext::getAuthentication)
+                .filter(authentication -> authentication.isAuthenticated() && authentication.getPrincipal() != null)
+                .map(authentication -> authentication.getPrincipal().toString())
+                .map(userId -> withUserId(exchange, userId))
+                .defaultIfEmpty(withUserId(exchange, null))
+                .flatMap(chain::filter);
+    }
+
+    private static ServerWebExchange withUserId(ServerWebExchange exchange, String userId) {
+        return exchange.mutate()
+                .request(request -> request.headers(headers -> {
+                    headers.remove(USER_ID_HEADER);
+                    if (userId != null) {
+                        headers.set(USER_ID_HEADER, userId);
+                    }
+                }))
+                .build();
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
@@ -0,0 +1,118 @@
+package com.neyma.apiGateway.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the internal WebSocket address of the messagingService instance a
+ * user is assigned to. Both halves are cached locally: user to instance for a
+ * short while, since assignments move when instances die, and instance to
+ * address for longer, since an instance keeps its address for its whole life.
+ * A reconnecting user is therefore usually routed without calling the registry.
+ */
+@Service
+public class InstanceResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstanceResolver.class);
+
+    private record Cached<T>(T value, long expiresAt) {
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    private final WebClient registryClient;
+    private final long assignmentTtlMillis;
+    private final long instanceTtlMillis;
+    private final int maxUsers;
+    private final Map<UUID, Cached<UUID>> assignments = new ConcurrentHashMap<>();
+    private final Map<UUID, Cached<URI>> instances = new ConcurrentHashMap<>();
+
+    public InstanceResolver(
+            WebClient.Builder webClientBuilder,
+            @Value("${SERVICE_REGISTRY_URL:http://service-registry-service:8080}") String registryUrl,
+            @Value("${gateway.sticky.assignment-ttl:30s}") Duration assignmentTtl,
+            @Value("${gateway.sticky.instance-ttl:5m}") Duration instanceTtl,
+            @Value("${gateway.sticky.max-users:100000}") int maxUsers) {
+        this.registryClient = webClientBuilder.baseUrl(registryUrl).build();
+        this.assignmentTtlMillis = assignmentTtl.toMillis();
+        this.instanceTtlMillis = instanceTtl.toMillis();
+        this.maxUsers = maxUsers;
+    }
+
+    /**
+     * The instance's internal address, or empty if the registry has none for it
+     * (e.g. it registered without one); callers then keep the default route.
+     */
+    public Mono<URI> resolve(UUID userId) {
+        long now = System.currentTimeMillis();
+        Cached<UUID> assignment = assignments.get(userId);
+        Mono<UUID> serviceId = assignment != null && !assignment.isExpired(now)
+                ? Mono.just(assignment.value())
+                : fetchAssignment(userId);
+        return serviceId.flatMap(this::instanceAddress);
+    }
+
+    // Called when proxying to the cached instance failed, so the next attempt asks the registry
+    public void evict(UUID userId) {
+        Cached<UUID> assignment = assignments.remove(userId);
+        if (assignment != null) {
+            instances.remove(assignment.value());
+        }
+    }
+
+    private Mono<UUID> fetchAssignment(UUID userId) {
+        return registryClient.get()
+                .uri("/registry/user/{userId}", userId)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .map(body -> UUID.fromString(body.get("serviceId").asText()))
+                .doOnNext(serviceId -> {
+                    long now = System.currentTimeMillis();
+                    if (assignments.size() >= maxUsers && !assignments.containsKey(userId)) {
+                        assignments.values().removeIf(cached -> cached.isExpired(now));
+                        // Still full of live entries: drop an arbitrary one, UUID keys hash randomly
+                        Iterator<UUID> cachedUsers = assignments.keySet().iterator();
+                        while (assignments.size() >= maxUsers && cachedUsers.hasNext()) {
+                            cachedUsers.next();
+                            cachedUsers.remove();
+                        }
+                    }
+                    assignments.put(userId, new Cached<>(serviceId, now + assignmentTtlMillis));
+                });
+    }
+
+    private Mono<URI> instanceAddress(UUID serviceId) {
+        long now = System.currentTimeMillis();
+        Cached<URI> instance = instances.get(serviceId);
+        if (instance != null && !instance.isExpired(now)) {
+            return Mono.just(instance.value());
+        }
+        return registryClient.get()
+                .uri("/registry/service/{serviceId}", serviceId)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .flatMap(body -> {
+                    JsonNode internalAddress = body.get("internalAddress");
+                    if (internalAddress == null || internalAddress.isNull()) {
+                        logger.debug("Instance {} registered without an internal address", serviceId);
+                        return Mono.empty();
+                    }
+                    URI address = URI.create(internalAddress.asText());
+                    instances.put(serviceId, new Cached<>(address, System.currentTimeMillis() + instanceTtlMillis));
+                    return Mono.just(address);
+                });
+    }
+}
@@ -1,6 +1,10 @@
 package com.neyma.chatHistoryService.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neyma.chatHistoryService.dto.ChatMembersRequest;
 import com.neyma.chatHistoryService.dto.ChatParticipantsResponse;
+import com.neyma.chatHistoryService.dto.InboxEntry;
+import com.neyma.chatHistoryService.dto.MessagePage;
 import com.neyma.chatHistoryService.entity.Message;
 import com.neyma.chatHistoryService.service.ChatHistoryService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -8,12 +12,16 @@ import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/history")
@@ -21,7 +29,12 @@ import java.util.UUID;
 @Tag(name = "Chat History", description = "API for retrieving chat history and participants")
 public class ChatHistoryController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    // Rows written between flushes while streaming
+    private static final int STREAM_FLUSH_ROWS = 100;
+
     private final ChatHistoryService chatHistoryService;
+    private final ObjectMapper objectMapper;
 
     @Operation(summary = "Get Chat ID", description = "Get common chat ID for two users, creating one if it doesn't exist")
     @GetMapping("/chat")
@@ -38,13 +51,63 @@ public class ChatHistoryController {
         return ResponseEntity.ok(chatHistoryService.getUserIdsForChat(chatId));
     }
 
-    @Operation(summary = "Get Messages", description = "Get messages for a chat within a time range")
+    @Operation(summary = "Get Messages", description = "Get messages for a chat within a time range of at most 64 time buckets; use the page or stream endpoints for longer ranges")
     @GetMapping("/messages")
     public ResponseEntity<List<Message>> getMessages(
             @Parameter(description = "ID of the chat") @RequestParam UUID chatId,
             @Parameter(description = "Start time (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
             @Parameter(description = "End time (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
-        return ResponseEntity.ok(chatHistoryService.getMessages(chatId, from, to));
+        try {
+            return ResponseEntity.ok(chatHistoryService.getMessages(chatId, from, to));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Operation(summary = "Get Latest Messages", description = "Get the chat's last messages, oldest first. Served from the tail cache for active chats; limit defaults to 50 and is capped at the cache capacity")
+    @GetMapping("/messages/latest")
+    public ResponseEntity<List<Message>> getLatestMessages(
+            @Parameter(description = "ID of the chat") @RequestParam UUID chatId,
+            @Parameter(description = "Number of messages (default 50)") @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(chatHistoryService.getLatestMessages(chatId, limit));
+    }
+
+    @Operation(summary = "Get Messages Page", description = "Get one page of messages for a chat within a time range, newest first. Pass nextCursor from the previous page to continue; limit is capped at 500")
+    @GetMapping("/messages/page")
+    public ResponseEntity<MessagePage> getMessagePage(
+            @Parameter(description = "ID of the chat") @RequestParam UUID chatId,
+            @Parameter(description = "Start time (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "End time (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @Parameter(description = "Page size (default 50, max 500)") @RequestParam(required = false) Integer limit,
+            @Parameter(description = "Cursor returned by the previous page") @RequestParam(required = false) String cursor) {
+        try {
+            return ResponseEntity.ok(chatHistoryService.getMessagePage(chatId, from, to, limit, cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Operation(summary = "Stream Messages", description = "Stream all messages for a chat within a time range as NDJSON, oldest first. Rows are written as they are read, so any range can be exported")
+    @GetMapping(value = "/messages/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamMessages(
+            @Parameter(description = "ID of the chat") @RequestParam UUID chatId,
+            @Parameter(description = "Start time (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "End time (ISO-8601)") @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        StreamingResponseBody body = out -> {
+            try (Stream<Message> messages = chatHistoryService.streamMessages(chatId, from, to)) {
+                Iterator<Message> rows = messages.iterator();
+                int written = 0;
+                while (rows.hasNext()) {
+                    out.write(objectMapper.writeValueAsBytes(rows.next()));
+                    out.write('\n');
+                    if (++written % STREAM_FLUSH_ROWS == 0) {
+                        out.flush();
+                    }
+                }
+                out.flush();
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
     }
 
     @Operation(summary = "Get User Chats", description = "Get list of chat IDs for a user")
@@ -54,6 +117,37 @@ public class ChatHistoryController {
         return ResponseEntity.ok(chatHistoryService.getUserChats(userId));
     }
 
+    @Operation(summary = "Get User Inbox", description = "Get the user's chats with last message preview, last activity time and unread count, most recently active first")
+    @GetMapping("/user/{userId}/inbox")
+    public ResponseEntity<List<InboxEntry>> getUserInbox(
+            @Parameter(description = "ID of the user") @PathVariable UUID userId,
+            @Parameter(description = "Maximum number of chats (default and max 500)") @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(chatHistoryService.getInbox(userId, limit));
+    }
+
+    @Operation(summary = "Create Group Chat", description = "Creates a chat with the given members (at most 1000) in one transaction")
+    @PostMapping("/chat/group")
+    public ResponseEntity<ChatParticipantsResponse> createGroupChat(@RequestBody ChatMembersRequest request) {
+        try {
+            return ResponseEntity.ok(chatHistoryService.createGroupChat(request.getUserIds()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Operation(summary = "Add Users to Chat", description = "Adds up to 1000 users to a chat in one transaction; users already in the chat are skipped")
+    @PostMapping("/chat/{chatId}/users")
+    public ResponseEntity<Void> addUsersToChat(
+            @Parameter(description = "ID of the chat") @PathVariable UUID chatId,
+            @RequestBody ChatMembersRequest request) {
+        try {
+            chatHistoryService.addUsersToChat(chatId, request.getUserIds());
+            return ResponseEntity.ok().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @Operation(summary = "Add User to Chat", description = "Adds a user to a specific chat")
     @PostMapping("/chat/{chatId}/user/{userId}")
     public ResponseEntity<Void> addUserToChat(
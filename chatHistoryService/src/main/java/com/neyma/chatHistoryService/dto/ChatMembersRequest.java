@@ -0,0 +1,15 @@
+package com.neyma.chatHistoryService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatMembersRequest {
+    private List<UUID> userIds;
+}
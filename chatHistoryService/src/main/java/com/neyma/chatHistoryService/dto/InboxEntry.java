@@ -0,0 +1,22 @@
+package com.neyma.chatHistoryService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InboxEntry {
+    private UUID chatId;
+    // Null until the first message arrives
+    private UUID lastMessageId;
+    private UUID lastSenderId;
+    private String lastMessagePreview;
+    private LocalDateTime lastActivityAt;
+    // Filled in from Redis, not stored with the row
+    private int unreadCount;
+}
@@ -0,0 +1,27 @@
+package com.neyma.chatHistoryService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// The fields of messageService's KafkaMessage read here; one event per receiver
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageEvent {
+    private UUID sender;
+    private UUID receiver;
+    private String message;
+    private LocalDateTime messageTime;
+    private UUID messageId;
+    private UUID chatId;
+    // The sender's display name, despite the field name
+    private String receiverName;
+    private String blobRef;
+    private Long blobSize;
+}
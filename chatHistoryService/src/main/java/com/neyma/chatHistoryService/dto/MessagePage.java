@@ -0,0 +1,18 @@
+package com.neyma.chatHistoryService.dto;
+
+import com.neyma.chatHistoryService.entity.Message;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessagePage {
+    // Newest first
+    private List<Message> messages;
+    // Opaque cursor for the next (older) page; null on the last page
+    private String nextCursor;
+}
@@ -1,35 +0,0 @@
-package com.neyma.chatHistoryService.entity;
-
-import jakarta.persistence.*;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-import java.time.LocalDateTime;
-
-@Entity
-@Table(name = "chat", indexes = @Index(name = "idx_chat_chat_id", columnList = "chatId"))
-@Data
-@Builder
-@NoArgsConstructor
-@AllArgsConstructor
-public class Chat {
-
-    @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
-    private java.util.UUID id;
-
-    @Column(nullable = false)
-    private java.util.UUID chatId;
-
-    @Column(nullable = false)
-    private java.util.UUID userId;
-
-    @Column(updatable = false)
-    private LocalDateTime timestamp;
-
-    @PrePersist
-    protected void onCreate() {
-        timestamp = LocalDateTime.now();
-    }
-}
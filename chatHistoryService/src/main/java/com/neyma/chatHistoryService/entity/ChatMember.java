@@ -0,0 +1,44 @@
+package com.neyma.chatHistoryService.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// One row per (chat, user). The primary key and the reverse index both cover the
+// two ids, so lookups by chat and by user never touch the heap.
+@Entity
+@Table(name = "chat_member",
+        indexes = @Index(name = "idx_chat_member_user_chat", columnList = "userId, chatId", unique = true))
+@IdClass(ChatMember.Key.class)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatMember {
+
+    @Id
+    @Column(nullable = false)
+    private UUID chatId;
+
+    @Id
+    @Column(nullable = false)
+    private UUID userId;
+
+    // Set by the database
+    @Column(insertable = false, updatable = false)
+    private LocalDateTime joinedAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private UUID chatId;
+        private UUID userId;
+    }
+}
@@ -0,0 +1,31 @@
+package com.neyma.chatHistoryService.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Bulk membership writes for groups. With reWriteBatchedInserts on the JDBC URL
+ * the driver sends each batch as multi-row inserts instead of one per member.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ChatMemberBatchRepository {
+
+    private static final String INSERT_MEMBER = """
+            INSERT INTO chat_member (chat_id, user_id) VALUES (?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void addMembers(UUID chatId, Collection<UUID> userIds) {
+        jdbcTemplate.batchUpdate(INSERT_MEMBER, userIds, userIds.size(), (ps, userId) -> {
+            ps.setObject(1, chatId);
+            ps.setObject(2, userId);
+        });
+    }
+}
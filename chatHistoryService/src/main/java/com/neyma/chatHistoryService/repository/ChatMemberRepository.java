@@ -0,0 +1,34 @@
+package com.neyma.chatHistoryService.repository;
+
+import com.neyma.chatHistoryService.entity.ChatMember;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ChatMemberRepository extends JpaRepository<ChatMember, ChatMember.Key> {
+
+    // Only the indexed columns are selected, so both lookups are index-only scans
+    @Query("SELECT m.userId FROM ChatMember m WHERE m.chatId = :chatId")
+    List<UUID> findUserIdsByChatId(@Param("chatId") UUID chatId);
+
+    @Query("SELECT m.chatId FROM ChatMember m WHERE m.userId = :userId")
+    List<UUID> findChatIdsByUserId(@Param("userId") UUID userId);
+
+    // A chat is created together with its first members
+    @Query("SELECT MIN(m.joinedAt) FROM ChatMember m WHERE m.chatId = :chatId")
+    Optional<LocalDateTime> findCreatedAt(@Param("chatId") UUID chatId);
+
+    // Joining twice is a no-op rather than a constraint violation
+    @Modifying
+    @Query(value = "INSERT INTO chat_member (chat_id, user_id) VALUES (:chatId, :userId) ON CONFLICT DO NOTHING",
+            nativeQuery = true)
+    int addMember(@Param("chatId") UUID chatId, @Param("userId") UUID userId);
+}
@@ -0,0 +1,47 @@
+package com.neyma.chatHistoryService.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The chat of each user pair, in direct_chat. The pair is ordered in SQL with
+ * LEAST/GREATEST so it matches Postgres' uuid ordering regardless of argument order.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DirectChatRepository {
+
+    private static final String FIND = """
+            SELECT chat_id FROM direct_chat
+            WHERE low_user_id = LEAST(?::uuid, ?::uuid) AND high_user_id = GREATEST(?::uuid, ?::uuid)
+            """;
+
+    // The no-op update makes RETURNING yield the existing chat when another
+    // transaction created the pair first; that call waits for it to commit.
+    private static final String CLAIM = """
+            INSERT INTO direct_chat (low_user_id, high_user_id, chat_id)
+            VALUES (LEAST(?::uuid, ?::uuid), GREATEST(?::uuid, ?::uuid), ?)
+            ON CONFLICT (low_user_id, high_user_id) DO UPDATE SET chat_id = direct_chat.chat_id
+            RETURNING chat_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public Optional<UUID> findChatId(UUID userId1, UUID userId2) {
+        return jdbcTemplate.queryForList(FIND, UUID.class, userId1, userId2, userId1, userId2)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Registers {@code chatId} as the pair's chat unless the pair already has one,
+     * and returns the chat that is registered afterwards.
+     */
+    public UUID claim(UUID userId1, UUID userId2, UUID chatId) {
+        return jdbcTemplate.queryForObject(CLAIM, UUID.class, userId1, userId2, userId1, userId2, chatId);
+    }
+}
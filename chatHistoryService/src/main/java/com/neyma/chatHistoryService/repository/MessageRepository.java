@@ -2,15 +2,22 @@ package com.neyma.chatHistoryService.repository;
 
 import com.neyma.chatHistoryService.entity.Message;
 import org.springframework.data.cassandra.repository.CassandraRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 import java.util.UUID;
 
+// Every query names a single (chat_id, time_bucket) partition; see TimeBuckets
 @Repository
 public interface MessageRepository extends CassandraRepository<Message, UUID> {
-    List<Message> findByChatId(UUID chatId);
 
-    List<Message> findByChatIdAndMessageTimeBetween(UUID chatId, java.time.LocalDateTime from,
-            java.time.LocalDateTime to);
+    List<Message> findByChatIdAndTimeBucketAndMessageTimeBetween(UUID chatId, long timeBucket,
+            java.time.LocalDateTime from, java.time.LocalDateTime to, Sort sort);
+
+    // Pass a CassandraPageRequest to resume from a paging state
+    Slice<Message> findByChatIdAndTimeBucketAndMessageTimeBetween(UUID chatId, long timeBucket,
+            java.time.LocalDateTime from, java.time.LocalDateTime to, Pageable pageable);
 }
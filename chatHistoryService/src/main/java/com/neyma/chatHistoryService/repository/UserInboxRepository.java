@@ -0,0 +1,93 @@
+package com.neyma.chatHistoryService.repository;
+
+import com.neyma.chatHistoryService.dto.InboxEntry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Plain JDBC access to user_inbox: updates arrive in Kafka batches and are
+ * applied as one batched upsert, which JPA can't express.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UserInboxRepository {
+
+    // Newer messages replace the preview; a redelivered last message (same id) is
+    // skipped so the row isn't rewritten for nothing.
+    private static final String UPSERT = """
+            INSERT INTO user_inbox (user_id, chat_id, last_message_id, last_sender_id, last_message_preview,
+                                    last_activity_at)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, chat_id) DO UPDATE SET
+                last_message_id = CASE WHEN EXCLUDED.last_activity_at >= user_inbox.last_activity_at
+                    THEN EXCLUDED.last_message_id ELSE user_inbox.last_message_id END,
+                last_sender_id = CASE WHEN EXCLUDED.last_activity_at >= user_inbox.last_activity_at
+                    THEN EXCLUDED.last_sender_id ELSE user_inbox.last_sender_id END,
+                last_message_preview = CASE WHEN EXCLUDED.last_activity_at >= user_inbox.last_activity_at
+                    THEN EXCLUDED.last_message_preview ELSE user_inbox.last_message_preview END,
+                last_activity_at = GREATEST(user_inbox.last_activity_at, EXCLUDED.last_activity_at)
+            WHERE user_inbox.last_message_id IS DISTINCT FROM EXCLUDED.last_message_id
+            """;
+
+    private static final String INSERT_EMPTY = """
+            INSERT INTO user_inbox (user_id, chat_id) VALUES (?, ?)
+            ON CONFLICT (user_id, chat_id) DO NOTHING
+            """;
+
+    private static final String FIND_BY_USER = """
+            SELECT chat_id, last_message_id, last_sender_id, last_message_preview, last_activity_at
+            FROM user_inbox
+            WHERE user_id = ?
+            ORDER BY last_activity_at DESC
+            LIMIT ?
+            """;
+
+    private static final RowMapper<InboxEntry> ENTRY_MAPPER = (rs, rowNum) -> new InboxEntry(
+            rs.getObject("chat_id", UUID.class),
+            rs.getObject("last_message_id", UUID.class),
+            rs.getObject("last_sender_id", UUID.class),
+            rs.getString("last_message_preview"),
+            rs.getTimestamp("last_activity_at").toLocalDateTime(),
+            0);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public record Update(UUID userId, UUID chatId, UUID messageId, UUID senderId, String preview,
+            LocalDateTime activityAt) {
+    }
+
+    public void upsertAll(Collection<Update> updates) {
+        jdbcTemplate.batchUpdate(UPSERT, updates, updates.size(), (ps, update) -> {
+            ps.setObject(1, update.userId());
+            ps.setObject(2, update.chatId());
+            ps.setObject(3, update.messageId());
+            ps.setObject(4, update.senderId());
+            ps.setString(5, update.preview());
+            ps.setTimestamp(6, Timestamp.valueOf(update.activityAt()));
+        });
+    }
+
+    // Makes a chat show up in the member's inbox before its first message
+    public void insertEmpty(UUID userId, UUID chatId) {
+        jdbcTemplate.update(INSERT_EMPTY, userId, chatId);
+    }
+
+    public void insertEmptyAll(Collection<UUID> userIds, UUID chatId) {
+        jdbcTemplate.batchUpdate(INSERT_EMPTY, userIds, userIds.size(), (ps, userId) -> {
+            ps.setObject(1, userId);
+            ps.setObject(2, chatId);
+        });
+    }
+
+    public List<InboxEntry> findByUserId(UUID userId, int limit) {
+        return jdbcTemplate.query(FIND_BY_USER, ENTRY_MAPPER, userId, limit);
+    }
+}
@@ -1,95 +1,412 @@
 package com.neyma.chatHistoryService.service;
 
 import com.neyma.chatHistoryService.dto.ChatParticipantsResponse;
-import com.neyma.chatHistoryService.entity.Chat;
-import com.neyma.chatHistoryService.entity.ChatRegistry;
+import com.neyma.chatHistoryService.dto.InboxEntry;
+import com.neyma.chatHistoryService.dto.MessagePage;
 import com.neyma.chatHistoryService.entity.Message;
-import com.neyma.chatHistoryService.repository.ChatRegistryRepository;
-import com.neyma.chatHistoryService.repository.ChatRepository;
+import com.neyma.chatHistoryService.repository.ChatMemberBatchRepository;
+import com.neyma.chatHistoryService.repository.ChatMemberRepository;
+import com.neyma.chatHistoryService.repository.DirectChatRepository;
 import com.neyma.chatHistoryService.repository.MessageRepository;
+import com.neyma.chatHistoryService.repository.UserInboxRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.cql.QueryOptions;
+import org.springframework.data.cassandra.core.query.CassandraPageRequest;
+import org.springframework.data.cassandra.core.query.Criteria;
+import org.springframework.data.cassandra.core.query.Query;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Service
 @RequiredArgsConstructor
 public class ChatHistoryService {
 
-    private final ChatRegistryRepository chatRegistryRepository;
-    private final ChatRepository chatRepository;
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
+    static final int MAX_INBOX_SIZE = 500;
+    static final int MAX_GROUP_MEMBERS = 1000;
+    // Tail cache marker for a chat whose whole history is cached
+    static final LocalDateTime WHOLE_HISTORY = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC);
+    // Margin before a chat's creation time, for membership timestamps taken in another zone or clock
+    private static final Duration CREATION_MARGIN = Duration.ofDays(1);
+    // Rows fetched per round trip while streaming
+    private static final int STREAM_FETCH_SIZE = 500;
+    // Upper bound on partitions touched by one page request, for sparse chats over long ranges
+    private static final int MAX_BUCKETS_PER_PAGE = 64;
+    // Upper bound on partitions read for one unpaged range; longer ranges go through paging or streaming
+    static final int MAX_BUCKETS_PER_RANGE = 64;
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "messageTime", "messageId");
+    private static final Sort OLDEST_FIRST = Sort.by(Sort.Direction.ASC, "messageTime", "messageId");
+
+    private final ChatMemberRepository chatMemberRepository;
+    private final ChatMemberBatchRepository chatMemberBatchRepository;
+    private final DirectChatRepository directChatRepository;
     private final MessageRepository messageRepository;
     private final com.neyma.chatHistoryService.client.api.MessageControllerApi messageControllerApi;
+    private final CassandraOperations cassandraOperations;
+    private final TimeBuckets timeBuckets;
+    private final UserInboxRepository userInboxRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final TailCache tailCache;
 
     @Transactional
     public void addUserToChat(UUID userId, UUID chatId) {
-        saveToRegistry(userId, chatId);
-        saveToChat(chatId, userId);
-        messageControllerApi.clearCache(chatId);
+        addMember(chatId, userId);
+        clearCacheAfterCommit(chatId);
+    }
+
+    /**
+     * Creates a group chat with the given members. A new chat has no cached
+     * participant list, so there is nothing to invalidate.
+     */
+    @Transactional
+    public ChatParticipantsResponse createGroupChat(Collection<UUID> userIds) {
+        List<UUID> members = distinctMembers(userIds);
+        UUID chatId = UUID.randomUUID();
+        addMembers(chatId, members);
+        return new ChatParticipantsResponse(chatId, members);
     }
 
+    /**
+     * Adds all users to the chat with batched inserts in one transaction, then
+     * invalidates messageService's participant cache once it has committed.
+     */
+    @Transactional
+    public void addUsersToChat(UUID chatId, Collection<UUID> userIds) {
+        addMembers(chatId, distinctMembers(userIds));
+        clearCacheAfterCommit(chatId);
+    }
+
+    /**
+     * The 1:1 chat of the two users, created on first use. Creation claims the
+     * pair in direct_chat first; a concurrent call for the same pair gets the
+     * winner's chat back instead of creating a second one.
+     */
     @Transactional
     public UUID getChatId(UUID userId1, UUID userId2) {
-        Optional<UUID> existingChatId = chatRegistryRepository.findCommonChatId(userId1, userId2);
+        Optional<UUID> existingChatId = directChatRepository.findChatId(userId1, userId2);
 
         if (existingChatId.isPresent()) {
             return existingChatId.get();
         }
 
         UUID newChatId = UUID.randomUUID();
+        UUID claimedChatId = directChatRepository.claim(userId1, userId2, newChatId);
+        if (!claimedChatId.equals(newChatId)) {
+            return claimedChatId;
+        }
 
-        // Save to ChatRegistry
-        saveToRegistry(userId1, newChatId);
-        saveToRegistry(userId2, newChatId);
-
-        // Save to Chat
-        saveToChat(newChatId, userId1);
-        saveToChat(newChatId, userId2);
+        addMember(newChatId, userId1);
+        addMember(newChatId, userId2);
 
         return newChatId;
     }
 
     public ChatParticipantsResponse getUserIdsForChat(UUID chatId) {
-        List<UUID> userIds = chatRepository.findAllByChatId(chatId)
-                .stream()
-                .map(Chat::getUserId)
-                .collect(Collectors.toList());
-
-        return new ChatParticipantsResponse(chatId, userIds);
+        return new ChatParticipantsResponse(chatId, chatMemberRepository.findUserIdsByChatId(chatId));
     }
 
     public List<UUID> getUserChats(UUID userId) {
-        return chatRepository.findAllByUserId(userId)
-                .stream()
-                .map(Chat::getChatId)
-                .distinct()
-                .collect(Collectors.toList());
+        return chatMemberRepository.findChatIdsByUserId(userId);
+    }
+
+    /**
+     * The user's chats with their last message preview and unread count, most
+     * recently active first, in a single indexed read of the inbox projection. The
+     * unread counts come from the user's Redis hash (unread:{userId}), which the
+     * dispatcher raises and read receipts lower.
+     */
+    public List<InboxEntry> getInbox(UUID userId, Integer limit) {
+        int size = Math.min(limit == null || limit <= 0 ? MAX_INBOX_SIZE : limit, MAX_INBOX_SIZE);
+        List<InboxEntry> entries = userInboxRepository.findByUserId(userId, size);
+        Map<Object, Object> unread = redisTemplate.opsForHash().entries("unread:{" + userId + "}");
+        for (InboxEntry entry : entries) {
+            Object count = unread.get(entry.getChatId().toString());
+            if (count != null) {
+                entry.setUnreadCount(Integer.parseInt(count.toString()));
+            }
+        }
+        return entries;
     }
 
+    /**
+     * Messages in the range, oldest first. The part of the range the tail cache
+     * covers is served from it; Cassandra is read only for what lies before. The
+     * range may span at most {@link #MAX_BUCKETS_PER_RANGE} time buckets.
+     */
     public List<Message> getMessages(UUID chatId, LocalDateTime from, LocalDateTime to) {
-        return messageRepository.findByChatIdAndMessageTimeBetween(chatId, from, to);
+        if (timeBuckets.bucketOf(to) - timeBuckets.bucketOf(from) >= MAX_BUCKETS_PER_RANGE) {
+            throw new IllegalArgumentException("Range spans more than " + MAX_BUCKETS_PER_RANGE + " time buckets");
+        }
+        Optional<TailCache.Window> window = tailCache.read(chatId);
+        if (window.isEmpty() || to.isBefore(window.get().completeFrom())) {
+            tailCache.record(TailCache.Result.MISS);
+            return readMessages(chatId, from, to);
+        }
+        LocalDateTime completeFrom = window.get().completeFrom();
+        if (!from.isBefore(completeFrom)) {
+            tailCache.record(TailCache.Result.HIT);
+            return window.get().between(from, to);
+        }
+        tailCache.record(TailCache.Result.PARTIAL);
+        List<Message> messages = new ArrayList<>(readMessages(chatId, from, completeFrom).stream()
+                .filter(message -> message.getMessageTime().isBefore(completeFrom))
+                .toList());
+        messages.addAll(window.get().between(completeFrom, to));
+        return messages;
+    }
+
+    /**
+     * The chat's last messages, oldest first, capped at the tail cache capacity.
+     * A miss reads the tail from Cassandra once, following the page cursor back to
+     * the chat's creation so long idle stretches don't end the walk early, and
+     * seeds the cache with it.
+     */
+    public List<Message> getLatestMessages(UUID chatId, Integer limit) {
+        int size = Math.min(limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : limit, tailCache.getCapacity());
+        Optional<TailCache.Window> window = tailCache.read(chatId);
+        if (window.isPresent()) {
+            List<Message> complete = window.get().between(window.get().completeFrom(), LocalDateTime.MAX);
+            if (complete.size() >= size || !window.get().completeFrom().isAfter(WHOLE_HISTORY)) {
+                tailCache.record(TailCache.Result.HIT);
+                return complete.subList(Math.max(0, complete.size() - size), complete.size());
+            }
+        }
+        tailCache.record(TailCache.Result.MISS);
+
+        Optional<LocalDateTime> createdAt = chatMemberRepository.findCreatedAt(chatId);
+        if (createdAt.isEmpty()) {
+            return List.of();
+        }
+        LocalDateTime from = createdAt.get().minus(CREATION_MARGIN);
+        // A little past now, for messages stamped by a messageService whose clock runs ahead
+        LocalDateTime to = LocalDateTime.now().plusMinutes(1);
+        int want = Math.min(tailCache.getCapacity(), MAX_PAGE_SIZE);
+        List<Message> tail = new ArrayList<>(want);
+        String cursor = null;
+        do {
+            MessagePage page = getMessagePage(chatId, from, to, want - tail.size(), cursor);
+            tail.addAll(page.getMessages());
+            cursor = page.getNextCursor();
+        } while (cursor != null && tail.size() < want);
+        Collections.reverse(tail);
+        if (!tail.isEmpty()) {
+            // Without a cursor left the tail holds the chat's whole history
+            tailCache.fill(chatId, tail, cursor == null ? WHOLE_HISTORY : tail.get(0).getMessageTime());
+        }
+        return tail.subList(Math.max(0, tail.size() - size), tail.size());
+    }
+
+    private List<Message> readMessages(UUID chatId, LocalDateTime from, LocalDateTime to) {
+        List<Message> messages = new ArrayList<>();
+        for (long bucket = timeBuckets.bucketOf(from); bucket <= timeBuckets.bucketOf(to); bucket++) {
+            messages.addAll(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(
+                    chatId, bucket, from, to, OLDEST_FIRST));
+        }
+        return messages;
+    }
+
+    /**
+     * One page of a chat's messages, newest first, ordered by (message_time,
+     * message_id). Buckets are walked from the newest down and the walk stops as
+     * soon as the page is full. The cursor holds the bucket and the Cassandra paging
+     * state where the previous page stopped, so nothing is re-scanned. The page size
+     * is capped at {@link #MAX_PAGE_SIZE}; a page may come back short with a cursor
+     * when a long run of empty buckets cut the walk off.
+     */
+    public MessagePage getMessagePage(UUID chatId, LocalDateTime from, LocalDateTime to, Integer limit,
+            String cursor) {
+        int size = Math.min(limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : limit, MAX_PAGE_SIZE);
+        long firstBucket = timeBuckets.bucketOf(from);
+        long bucket = cursor == null ? timeBuckets.bucketOf(to) : cursorBucket(cursor);
+        ByteBuffer pagingState = cursor == null ? null : cursorPagingState(cursor);
+
+        List<Message> messages = new ArrayList<>(size);
+        for (int walked = 0; bucket >= firstBucket && walked < MAX_BUCKETS_PER_PAGE; bucket--, walked++) {
+            CassandraPageRequest pageRequest = pagingState == null
+                    ? CassandraPageRequest.first(size - messages.size(), NEWEST_FIRST)
+                    : CassandraPageRequest.of(CassandraPageRequest.first(size - messages.size(), NEWEST_FIRST),
+                            pagingState);
+            pagingState = null;
+
+            Slice<Message> slice = messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(
+                    chatId, bucket, from, to, pageRequest);
+            messages.addAll(slice.getContent());
+            if (slice.hasNext()) {
+                // Page full in the middle of this bucket
+                return new MessagePage(messages, encodeCursor(bucket,
+                        ((CassandraPageRequest) slice.nextPageable()).getPagingState()));
+            }
+            if (messages.size() == size) {
+                bucket--;
+                break;
+            }
+        }
+        return new MessagePage(messages, bucket >= firstBucket ? encodeCursor(bucket, null) : null);
+    }
+
+    /**
+     * All messages in the range, oldest first, read lazily bucket by bucket in
+     * driver pages. The caller must close the stream.
+     */
+    public Stream<Message> streamMessages(UUID chatId, LocalDateTime from, LocalDateTime to) {
+        BucketIterator rows = new BucketIterator(timeBuckets.bucketOf(from), timeBuckets.bucketOf(to),
+                bucket -> cassandraOperations.stream(Query.query(
+                                        Criteria.where("chat_id").is(chatId),
+                                        Criteria.where("time_bucket").is(bucket),
+                                        Criteria.where("message_time").gte(from),
+                                        Criteria.where("message_time").lte(to))
+                                .sort(OLDEST_FIRST)
+                                .queryOptions(QueryOptions.builder().pageSize(STREAM_FETCH_SIZE).build()),
+                        Message.class));
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(rows::close);
+    }
+
+    // Stream.flatMap pulls a whole inner stream into a buffer once read through an
+    // iterator, so the buckets are walked by hand: one open result set at a time.
+    private static final class BucketIterator implements Iterator<Message>, AutoCloseable {
+
+        private final LongFunction<Stream<Message>> openBucket;
+        private final long lastBucket;
+        private long nextBucket;
+        private Stream<Message> current;
+        private Iterator<Message> rows = Collections.emptyIterator();
+
+        BucketIterator(long firstBucket, long lastBucket, LongFunction<Stream<Message>> openBucket) {
+            this.openBucket = openBucket;
+            this.nextBucket = firstBucket;
+            this.lastBucket = lastBucket;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!rows.hasNext()) {
+                close();
+                if (nextBucket > lastBucket) {
+                    return false;
+                }
+                current = openBucket.apply(nextBucket++);
+                rows = current.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return rows.next();
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+                rows = Collections.emptyIterator();
+            }
+        }
     }
 
-    private void saveToRegistry(UUID userId, UUID chatId) {
-        ChatRegistry registry = ChatRegistry.builder()
-                .userId(userId)
-                .chatId(chatId)
-                // createdAt handled by @PrePersist
-                .build();
-        chatRegistryRepository.save(registry);
+    // Cursor: "<bucket>.<base64url paging state>", the state is empty at a bucket boundary
+    private static String encodeCursor(long bucket, ByteBuffer pagingState) {
+        if (pagingState == null) {
+            return bucket + ".";
+        }
+        ByteBuffer state = pagingState.duplicate();
+        byte[] bytes = new byte[state.remaining()];
+        state.get(bytes);
+        return bucket + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static long cursorBucket(String cursor) {
+        try {
+            return Long.parseLong(cursor.substring(0, cursorSeparator(cursor)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private static ByteBuffer cursorPagingState(String cursor) {
+        String state = cursor.substring(cursorSeparator(cursor) + 1);
+        if (state.isEmpty()) {
+            return null;
+        }
+        try {
+            return ByteBuffer.wrap(Base64.getUrlDecoder().decode(state));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    private static int cursorSeparator(String cursor) {
+        int separator = cursor.indexOf('.');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return separator;
+    }
+
+    private void addMembers(UUID chatId, List<UUID> userIds) {
+        chatMemberBatchRepository.addMembers(chatId, userIds);
+        userInboxRepository.insertEmptyAll(userIds, chatId);
+    }
+
+    private static List<UUID> distinctMembers(Collection<UUID> userIds) {
+        List<UUID> members = userIds == null ? List.of()
+                : userIds.stream().filter(Objects::nonNull).distinct().toList();
+        if (members.isEmpty() || members.size() > MAX_GROUP_MEMBERS) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_GROUP_MEMBERS + " members required");
+        }
+        return members;
+    }
+
+    // Clearing before the commit would let a concurrent read re-cache the old member list
+    private void clearCacheAfterCommit(UUID chatId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            messageControllerApi.clearCache(chatId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                messageControllerApi.clearCache(chatId);
+            }
+        });
     }
 
-    private void saveToChat(UUID chatId, UUID userId) {
-        Chat chat = Chat.builder()
-                .chatId(chatId)
-                .userId(userId)
-                // timestamp handled by @PrePersist
-                .build();
-        chatRepository.save(chat);
+    private void addMember(UUID chatId, UUID userId) {
+        chatMemberRepository.addMember(chatId, userId);
+        userInboxRepository.insertEmpty(userId, chatId);
     }
 }
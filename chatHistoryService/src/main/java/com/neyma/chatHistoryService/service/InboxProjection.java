@@ -0,0 +1,84 @@
+package com.neyma.chatHistoryService.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neyma.chatHistoryService.dto.MessageEvent;
+import com.neyma.chatHistoryService.repository.UserInboxRepository;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps user_inbox up to date from the Kafka message stream: for every receiver
+ * the chat's last message preview and last activity time. Each poll
+ * is folded per (user, chat) and written with one batched upsert, so a burst in a
+ * busy chat costs one row update per member rather than one per message. Unread
+ * counts live in Redis, maintained by the dispatcher.
+ */
+@Service
+@RequiredArgsConstructor
+public class InboxProjection {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxProjection.class);
+
+    static final int PREVIEW_LENGTH = 140;
+
+    private final UserInboxRepository userInboxRepository;
+    private final ObjectMapper objectMapper;
+
+    @KafkaListener(topics = "message", groupId = "chat-history-inbox", batch = "true")
+    public void listen(List<ConsumerRecord<String, byte[]>> records) {
+        Map<List<UUID>, UserInboxRepository.Update> updates = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            MessageEvent event = parse(record.value());
+            if (event == null || event.getReceiver() == null || event.getChatId() == null
+                    || event.getMessageTime() == null) {
+                continue;
+            }
+            UserInboxRepository.Update update = toUpdate(event);
+            updates.merge(List.of(update.userId(), update.chatId()), update, InboxProjection::fold);
+        }
+        if (!updates.isEmpty()) {
+            userInboxRepository.upsertAll(updates.values());
+            logger.debug("Applied {} message(s) as {} inbox update(s)", records.size(), updates.size());
+        }
+    }
+
+    private MessageEvent parse(byte[] value) {
+        try {
+            return objectMapper.readValue(value, MessageEvent.class);
+        } catch (IOException e) {
+            logger.warn("Skipping unreadable message event: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static UserInboxRepository.Update toUpdate(MessageEvent event) {
+        return new UserInboxRepository.Update(event.getReceiver(), event.getChatId(), event.getMessageId(),
+                event.getSender(), preview(event.getMessage()), event.getMessageTime());
+    }
+
+    // Keeps the newest message
+    static UserInboxRepository.Update fold(UserInboxRepository.Update current, UserInboxRepository.Update next) {
+        return next.activityAt().isBefore(current.activityAt()) ? current : next;
+    }
+
+    private static String preview(String message) {
+        if (message == null || message.length() <= PREVIEW_LENGTH) {
+            return message;
+        }
+        int end = PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(message.charAt(end - 1))) {
+            end--;
+        }
+        return message.substring(0, end);
+    }
+}
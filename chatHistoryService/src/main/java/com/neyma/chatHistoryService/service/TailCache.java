@@ -0,0 +1,338 @@
+package com.neyma.chatHistoryService.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neyma.chatHistoryService.dto.MessageEvent;
+import com.neyma.chatHistoryService.entity.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last few hundred messages of each active chat, kept in a capped Redis
+ * sorted set scored by message time next to a marker saying from which message
+ * time on the tail is complete. The tail is fed from the Kafka message stream and
+ * warmed from Cassandra on a miss, so opening a chat and reading its tail normally
+ * never touches Cassandra. Idle chats expire.
+ */
+@Service
+public class TailCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TailCache.class);
+
+    static final Comparator<Message> OLDEST_FIRST = Comparator.comparing(Message::getMessageTime)
+            .thenComparing(Message::getMessageId);
+
+    // KEYS[1] = tail, KEYS[2] = complete-since marker, ARGV[1] = capacity, ARGV[2] = ttl millis,
+    // ARGV[3] = time of the oldest new message, ARGV[4..] = message time millis, message pairs.
+    // A chat that had no tail only has it from these messages on.
+    private static final RedisScript<Long> APPEND = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                redis.call('SET', KEYS[2], ARGV[3])
+            end
+            for i = 4, #ARGV, 2 do
+                redis.call('ZADD', KEYS[1], ARGV[i], ARGV[i + 1])
+            end
+            redis.call('ZREMRANGEBYRANK', KEYS[1], 0, -tonumber(ARGV[1]) - 1)
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            redis.call('PEXPIRE', KEYS[2], ARGV[2])
+            return redis.call('ZCARD', KEYS[1])
+            """, Long.class);
+
+    // ARGV[1] = ttl millis, ARGV[2] = complete-since, ARGV[3] = capacity,
+    // ARGV[4..] = message id, message time millis, message triples.
+    // Merges into a tail the stream already started. Messages the stream has not
+    // delivered yet may be older or newer than what it has, so they go in by time;
+    // the union is complete from the earlier marker.
+    private static final RedisScript<Long> FILL = RedisScript.of("""
+            local known = {}
+            local since = ARGV[2]
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                for _, value in ipairs(redis.call('ZRANGE', KEYS[1], 0, -1)) do
+                    local ok, message = pcall(cjson.decode, value)
+                    if ok and type(message) == 'table' and message.messageId then
+                        known[message.messageId] = true
+                    end
+                end
+                local current = redis.call('GET', KEYS[2])
+                if current and tonumber(current) < tonumber(since) then
+                    since = current
+                end
+            end
+            local added = 0
+            for i = 4, #ARGV, 3 do
+                if not known[ARGV[i]] then
+                    redis.call('ZADD', KEYS[1], ARGV[i + 1], ARGV[i + 2])
+                    added = added + 1
+                end
+            end
+            redis.call('ZREMRANGEBYRANK', KEYS[1], 0, -tonumber(ARGV[3]) - 1)
+            redis.call('SET', KEYS[2], since, 'PX', ARGV[1])
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            return added
+            """, Long.class);
+
+    // The marker followed by the tail, oldest first, or nothing when the chat isn't cached
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> READ = RedisScript.of("""
+            local since = redis.call('GET', KEYS[2])
+            if not since then
+                return {}
+            end
+            local items = redis.call('ZRANGE', KEYS[1], 0, -1)
+            table.insert(items, 1, since)
+            return items
+            """, List.class);
+
+    /**
+     * Cached messages, oldest first. Every message of the chat at or after
+     * {@code completeFrom} is in the list.
+     */
+    public record Window(List<Message> messages, LocalDateTime completeFrom) {
+
+        public List<Message> between(LocalDateTime from, LocalDateTime to) {
+            return messages.stream()
+                    .filter(message -> !message.getMessageTime().isBefore(from)
+                            && !message.getMessageTime().isAfter(to))
+                    .toList();
+        }
+    }
+
+    public enum Result {
+        HIT,
+        // Served partly from the cache, the part before its window from Cassandra
+        PARTIAL,
+        MISS
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final TimeBuckets timeBuckets;
+    private final int capacity;
+    private final Duration ttl;
+    private final Map<Result, Counter> reads = new LinkedHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+
+    public TailCache(
+            StringRedisTemplate redisTemplate,
+            ObjectMapper objectMapper,
+            TimeBuckets timeBuckets,
+            MeterRegistry meterRegistry,
+            @Value("${history.tail-cache.capacity:200}") int capacity,
+            @Value("${history.tail-cache.ttl:1d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.timeBuckets = timeBuckets;
+        this.capacity = capacity;
+        this.ttl = ttl;
+        for (Result result : Result.values()) {
+            reads.put(result, Counter.builder("history.tail-cache.reads")
+                    .description("History reads per tail cache outcome")
+                    .tag("result", result.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        Gauge.builder("history.tail-cache.hit-ratio", this, TailCache::hitRatio)
+                .description("Share of history reads served from the tail cache without Cassandra")
+                .register(meterRegistry);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Every message reaches the topic once per receiver; the sender's own copy
+     * stands for the message, so each one is cached exactly once.
+     */
+    @KafkaListener(topics = "message", groupId = "chat-history-tail-cache", batch = "true")
+    public void listen(List<ConsumerRecord<String, byte[]>> records) {
+        Map<UUID, List<Message>> byChat = new LinkedHashMap<>();
+        for (ConsumerRecord<String, byte[]> record : records) {
+            MessageEvent event = parse(record.value());
+            if (event == null || event.getChatId() == null || event.getMessageTime() == null
+                    || event.getReceiver() == null || !event.getReceiver().equals(event.getSender())) {
+                continue;
+            }
+            byChat.computeIfAbsent(event.getChatId(), id -> new ArrayList<>()).add(toMessage(event));
+        }
+        byChat.forEach(this::append);
+    }
+
+    public Optional<Window> read(UUID chatId) {
+        List<String> values;
+        try {
+            @SuppressWarnings("unchecked")
+            List<String> result = redisTemplate.execute(READ, keys(chatId));
+            values = result;
+        } catch (Exception e) {
+            logger.warn("Tail cache read for chat {} failed: {}", chatId, e.getMessage());
+            return Optional.empty();
+        }
+        if (values == null || values.size() < 2) {
+            return Optional.empty();
+        }
+        // A redelivered message may sit in the tail twice if its JSON differs
+        TreeSet<Message> messages = new TreeSet<>(OLDEST_FIRST);
+        for (String value : values.subList(1, values.size())) {
+            Message message = deserialize(value);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        if (messages.isEmpty()) {
+            return Optional.empty();
+        }
+        LocalDateTime completeFrom = fromMillis(Long.parseLong(values.get(0)));
+        // Once the tail is at capacity everything before its oldest entry has been trimmed
+        if (values.size() - 1 >= capacity && messages.first().getMessageTime().isAfter(completeFrom)) {
+            completeFrom = messages.first().getMessageTime();
+        }
+        return Optional.of(new Window(List.copyOf(messages), completeFrom));
+    }
+
+    /**
+     * Seeds the chat with the tail read from Cassandra, merged with whatever the
+     * stream has cached meanwhile. Every message from {@code completeFrom} on must
+     * be among {@code oldestFirst}.
+     */
+    public void fill(UUID chatId, List<Message> oldestFirst, LocalDateTime completeFrom) {
+        if (oldestFirst.isEmpty()) {
+            return;
+        }
+        List<String> args = new ArrayList<>(3 * Math.min(oldestFirst.size(), capacity) + 3);
+        args.add(String.valueOf(ttl.toMillis()));
+        args.add(String.valueOf(toMillis(completeFrom)));
+        args.add(String.valueOf(capacity));
+        for (int i = oldestFirst.size() - 1; i >= 0 && (args.size() - 3) / 3 < capacity; i--) {
+            Message message = oldestFirst.get(i);
+            String json = serialize(message);
+            if (json == null) {
+                return;
+            }
+            args.add(String.valueOf(message.getMessageId()));
+            args.add(String.valueOf(toMillis(message.getMessageTime())));
+            args.add(json);
+        }
+        try {
+            redisTemplate.execute(FILL, keys(chatId), args.toArray());
+        } catch (Exception e) {
+            // Only costs the next read another trip to Cassandra
+            logger.warn("Failed to fill the tail of chat {}: {}", chatId, e.getMessage());
+        }
+    }
+
+    public void record(Result result) {
+        reads.get(result).increment();
+        total.incrementAndGet();
+        if (result == Result.HIT) {
+            hits.incrementAndGet();
+        }
+    }
+
+    private void append(UUID chatId, List<Message> messages) {
+        messages.sort(OLDEST_FIRST);
+        List<String> args = new ArrayList<>(2 * messages.size() + 3);
+        args.add(String.valueOf(capacity));
+        args.add(String.valueOf(ttl.toMillis()));
+        args.add(String.valueOf(toMillis(messages.get(0).getMessageTime())));
+        for (Message message : messages) {
+            String json = serialize(message);
+            if (json != null) {
+                args.add(String.valueOf(toMillis(message.getMessageTime())));
+                args.add(json);
+            }
+        }
+        try {
+            redisTemplate.execute(APPEND, keys(chatId), args.toArray());
+        } catch (Exception e) {
+            // The cache only loses this chat's tail; reads fall back to Cassandra
+            logger.warn("Failed to append {} message(s) to the tail of chat {}: {}",
+                    messages.size(), chatId, e.getMessage());
+            redisTemplate.delete(keys(chatId));
+        }
+    }
+
+    private Message toMessage(MessageEvent event) {
+        return Message.builder()
+                .chatId(event.getChatId())
+                .timeBucket(timeBuckets.bucketOf(event.getMessageTime()))
+                .messageTime(event.getMessageTime())
+                .messageId(event.getMessageId())
+                .userId(event.getSender())
+                .messageContent(event.getMessage())
+                .messageSent(event.getReceiverName())
+                .blobRef(event.getBlobRef())
+                .blobSize(event.getBlobSize())
+                .build();
+    }
+
+    private MessageEvent parse(byte[] value) {
+        try {
+            return objectMapper.readValue(value, MessageEvent.class);
+        } catch (IOException e) {
+            logger.warn("Skipping unreadable message event: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private String serialize(Message message) {
+        try {
+            return objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to serialize message {}: {}", message.getMessageId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Message deserialize(String value) {
+        try {
+            return objectMapper.readValue(value, Message.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private double hitRatio() {
+        long lookups = total.get();
+        return lookups == 0 ? 0.0 : (double) hits.get() / lookups;
+    }
+
+    // Same hash tag for both keys, so the scripts also run on Redis Cluster. The tail key
+    // is new with the sorted set, so lists left by older versions just expire.
+    static List<String> keys(UUID chatId) {
+        return List.of("chat_tail_by_time:{" + chatId + "}", "chat_tail_since:{" + chatId + "}");
+    }
+
+    // Message times are UTC, as in TimeBuckets
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,95 @@
+package com.neyma.chatHistoryService.task;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.neyma.chatHistoryService.service.TimeBuckets;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-off copy of the legacy, unbucketed messages table into messages_by_bucket.
+ * Enable with history.bucket-migration.enabled=true on a single instance. Rows are
+ * read in pages and written with a bounded number of async inserts; inserts are
+ * upserts, so an interrupted run can simply be started again.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "history.bucket-migration.enabled", havingValue = "true")
+public class BucketMigrationTask implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(BucketMigrationTask.class);
+
+    private static final String LEGACY_TABLE = "messages";
+    private static final int READ_PAGE_SIZE = 1000;
+    private static final int MAX_IN_FLIGHT = 128;
+    private static final int PROGRESS_EVERY = 10_000;
+
+    private final CqlSession session;
+    private final TimeBuckets timeBuckets;
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        Optional<TableMetadata> legacyTable = session.getKeyspace()
+                .flatMap(keyspace -> session.getMetadata().getKeyspace(keyspace))
+                .flatMap(keyspace -> keyspace.getTable(LEGACY_TABLE));
+        if (legacyTable.isEmpty()) {
+            logger.info("No legacy {} table, nothing to migrate", LEGACY_TABLE);
+            return;
+        }
+        // Tables created before blobs existed have no blob columns; their rows are copied without them
+        boolean hasBlobs = legacyTable.get().getColumn("blob_ref").isPresent()
+                && legacyTable.get().getColumn("blob_size").isPresent();
+
+        PreparedStatement insert = session.prepare("INSERT INTO messages_by_bucket "
+                + "(chat_id, time_bucket, message_time, message_id, user_id, message_content, message_sent, blob_ref, blob_size) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        ResultSet rows = session.execute(SimpleStatement.newInstance("SELECT chat_id, message_time, message_id, "
+                        + "user_id, message_content, message_sent" + (hasBlobs ? ", blob_ref, blob_size" : "")
+                        + " FROM " + LEGACY_TABLE)
+                .setPageSize(READ_PAGE_SIZE));
+
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        AtomicLong failed = new AtomicLong();
+        long copied = 0;
+        for (Row row : rows) {
+            Instant messageTime = row.getInstant("message_time");
+            // The entities store LocalDateTime in the JVM zone; bucket it the way TimeBuckets does on write
+            long bucket = timeBuckets.bucketOf(LocalDateTime.ofInstant(messageTime, ZoneId.systemDefault()));
+
+            inFlight.acquire();
+            session.executeAsync(insert.bind(row.getUuid("chat_id"), bucket, messageTime, row.getUuid("message_id"),
+                            row.getUuid("user_id"), row.getString("message_content"), row.getString("message_sent"),
+                            hasBlobs ? row.getString("blob_ref") : null,
+                            !hasBlobs || row.isNull("blob_size") ? null : row.getLong("blob_size")))
+                    .whenComplete((result, error) -> {
+                        if (error != null) {
+                            failed.incrementAndGet();
+                            logger.error("Failed to copy message {}: {}", row.getUuid("message_id"), error.getMessage());
+                        }
+                        inFlight.release();
+                    });
+            if (++copied % PROGRESS_EVERY == 0) {
+                logger.info("Copied {} messages into messages_by_bucket", copied);
+            }
+        }
+        inFlight.acquire(MAX_IN_FLIGHT);
+
+        logger.info("Bucket migration finished: {} messages read, {} failed", copied, failed.get());
+    }
+}
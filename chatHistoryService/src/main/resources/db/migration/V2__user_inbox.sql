@@ -0,0 +1,21 @@
+-- Per-user chat list, maintained from the Kafka message stream
+CREATE TABLE user_inbox (
+    user_id UUID NOT NULL,
+    chat_id UUID NOT NULL,
+    last_message_id UUID,
+    last_sender_id UUID,
+    last_message_preview VARCHAR(280),
+    last_activity_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    unread_count INTEGER NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, chat_id)
+);
+
+-- Serves the chat list sorted by activity in one index range scan
+CREATE INDEX idx_user_inbox_activity ON user_inbox(user_id, last_activity_at DESC);
+
+-- Existing chats start without a preview, ordered by when the user joined
+INSERT INTO user_inbox (user_id, chat_id, last_activity_at)
+SELECT user_id, chat_id, COALESCE(MIN(timestamp), CURRENT_TIMESTAMP)
+FROM chat
+GROUP BY user_id, chat_id
+ON CONFLICT DO NOTHING;
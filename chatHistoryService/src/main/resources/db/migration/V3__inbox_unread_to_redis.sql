@@ -0,0 +1,3 @@
+-- Unread counters moved to Redis (unread:<userId> hashes), maintained by the
+-- dispatcher and reset by read receipts
+ALTER TABLE user_inbox DROP COLUMN unread_count;
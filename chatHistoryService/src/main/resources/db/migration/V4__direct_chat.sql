@@ -0,0 +1,32 @@
+-- One row per 1:1 chat, keyed on the ordered user pair so finding a pair's chat
+-- is a single primary key probe and two concurrent creations can't both succeed
+CREATE TABLE direct_chat (
+    low_user_id UUID NOT NULL,
+    high_user_id UUID NOT NULL,
+    chat_id UUID NOT NULL UNIQUE,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (low_user_id, high_user_id),
+    CHECK (low_user_id <= high_user_id)
+);
+
+-- Backfill from chats created as 1:1 chats. getChatId wrote both members of a
+-- new chat in one transaction, so such a chat has exactly two registry rows for
+-- two different users, created together; a group that happens to have two
+-- members was built by separate add-user calls and is left out. uuid has no
+-- min/max aggregate; the canonical text form sorts the same way. Pairs that
+-- ended up with several chats keep the oldest.
+INSERT INTO direct_chat (low_user_id, high_user_id, chat_id, created_at)
+SELECT DISTINCT ON (low_user_id, high_user_id) low_user_id, high_user_id, chat_id, created_at
+FROM (
+    SELECT chat_id,
+           MIN(user_id::text)::uuid AS low_user_id,
+           MAX(user_id::text)::uuid AS high_user_id,
+           MIN(created_at) AS created_at
+    FROM chat_registry
+    GROUP BY chat_id
+    HAVING COUNT(*) = 2
+       AND COUNT(DISTINCT user_id) = 2
+       AND MAX(created_at) - MIN(created_at) < INTERVAL '1 second'
+) pairs
+ORDER BY low_user_id, high_user_id, created_at
+ON CONFLICT DO NOTHING;
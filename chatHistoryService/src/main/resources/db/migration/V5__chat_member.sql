@@ -0,0 +1,27 @@
+-- chat and chat_registry held the same memberships twice, each with a single
+-- column index. chat_member replaces both: the primary key serves lookups by
+-- chat and the reverse index lookups by user, both as index-only scans.
+CREATE TABLE chat_member (
+    chat_id UUID NOT NULL,
+    user_id UUID NOT NULL,
+    joined_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (chat_id, user_id)
+);
+
+CREATE UNIQUE INDEX idx_chat_member_user_chat ON chat_member (user_id, chat_id);
+
+INSERT INTO chat_member (chat_id, user_id, joined_at)
+SELECT chat_id, user_id, COALESCE(MIN(joined_at), CURRENT_TIMESTAMP)
+FROM (
+    SELECT chat_id, user_id, timestamp AS joined_at FROM chat
+    UNION ALL
+    SELECT chat_id, user_id, created_at AS joined_at FROM chat_registry
+) memberships
+GROUP BY chat_id, user_id;
+
+-- VACUUM can't run inside the migration's transaction; autovacuum sets the
+-- visibility map that index-only scans rely on
+ANALYZE chat_member;
+
+DROP TABLE chat_registry;
+DROP TABLE chat;
@@ -1,40 +1,85 @@
 package com.neyma.chatHistoryService.service;
 
+import com.neyma.chatHistoryService.client.api.MessageControllerApi;
 import com.neyma.chatHistoryService.dto.ChatParticipantsResponse;
-import com.neyma.chatHistoryService.entity.Chat;
-import com.neyma.chatHistoryService.entity.ChatRegistry;
+import com.neyma.chatHistoryService.dto.InboxEntry;
+import com.neyma.chatHistoryService.dto.MessagePage;
 import com.neyma.chatHistoryService.entity.Message;
-import com.neyma.chatHistoryService.repository.ChatRegistryRepository;
-import com.neyma.chatHistoryService.repository.ChatRepository;
+import com.neyma.chatHistoryService.repository.ChatMemberBatchRepository;
+import com.neyma.chatHistoryService.repository.ChatMemberRepository;
+import com.neyma.chatHistoryService.repository.DirectChatRepository;
 import com.neyma.chatHistoryService.repository.MessageRepository;
+import com.neyma.chatHistoryService.repository.UserInboxRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.query.CassandraPageRequest;
+import org.springframework.data.cassandra.core.query.Query;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ChatHistoryServiceTest {
 
     @Mock
-    private ChatRegistryRepository chatRegistryRepository;
+    private ChatMemberRepository chatMemberRepository;
 
     @Mock
-    private ChatRepository chatRepository;
+    private ChatMemberBatchRepository chatMemberBatchRepository;
+
+    @Mock
+    private MessageControllerApi messageControllerApi;
+
+    @Mock
+    private DirectChatRepository directChatRepository;
 
     @Mock
     private MessageRepository messageRepository;
 
+    @Mock
+    private UserInboxRepository userInboxRepository;
+
+    @Mock
+    private CassandraOperations cassandraOperations;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private TailCache tailCache;
+
+    @Spy
+    private TimeBuckets timeBuckets = new TimeBuckets(Duration.ofDays(7));
+
     @InjectMocks
     private ChatHistoryService chatHistoryService;
 
@@ -51,31 +96,44 @@ class ChatHistoryServiceTest {
 
     @Test
     void getChatId_ReturnsExistingChatId() {
-        when(chatRegistryRepository.findCommonChatId(userId1, userId2)).thenReturn(Optional.of(chatId));
+        when(directChatRepository.findChatId(userId1, userId2)).thenReturn(Optional.of(chatId));
 
         UUID result = chatHistoryService.getChatId(userId1, userId2);
 
         assertEquals(chatId, result);
-        verify(chatRegistryRepository, never()).save(any());
-        verify(chatRepository, never()).save(any());
+        verify(directChatRepository, never()).claim(any(), any(), any());
+        verify(chatMemberRepository, never()).addMember(any(), any());
     }
 
     @Test
     void getChatId_CreatesNewChatWhenNoneExists() {
-        when(chatRegistryRepository.findCommonChatId(userId1, userId2)).thenReturn(Optional.empty());
+        when(directChatRepository.findChatId(userId1, userId2)).thenReturn(Optional.empty());
+        when(directChatRepository.claim(eq(userId1), eq(userId2), any(UUID.class)))
+                .thenAnswer(invocation -> invocation.getArgument(2));
 
         UUID result = chatHistoryService.getChatId(userId1, userId2);
 
         assertNotNull(result);
-        verify(chatRegistryRepository, times(2)).save(any(ChatRegistry.class));
-        verify(chatRepository, times(2)).save(any(Chat.class));
+        verify(chatMemberRepository).addMember(result, userId1);
+        verify(chatMemberRepository).addMember(result, userId2);
+        verify(userInboxRepository).insertEmpty(userId1, result);
+        verify(userInboxRepository).insertEmpty(userId2, result);
+    }
+
+    @Test
+    void getChatId_ReturnsConcurrentlyCreatedChat() {
+        when(directChatRepository.findChatId(userId1, userId2)).thenReturn(Optional.empty());
+        when(directChatRepository.claim(eq(userId1), eq(userId2), any(UUID.class))).thenReturn(chatId);
+
+        UUID result = chatHistoryService.getChatId(userId1, userId2);
+
+        assertEquals(chatId, result);
+        verify(chatMemberRepository, never()).addMember(any(), any());
     }
 
     @Test
     void getUserIdsForChat_ReturnsParticipants() {
-        Chat chat1 = Chat.builder().chatId(chatId).userId(userId1).build();
-        Chat chat2 = Chat.builder().chatId(chatId).userId(userId2).build();
-        when(chatRepository.findAllByChatId(chatId)).thenReturn(List.of(chat1, chat2));
+        when(chatMemberRepository.findUserIdsByChatId(chatId)).thenReturn(List.of(userId1, userId2));
 
         ChatParticipantsResponse response = chatHistoryService.getUserIdsForChat(chatId);
 
@@ -85,9 +143,64 @@ class ChatHistoryServiceTest {
         assertTrue(response.getUserIds().contains(userId2));
     }
 
+    @Test
+    void createGroupChat_AddsDistinctMembersInOneBatch() {
+        UUID userId3 = UUID.randomUUID();
+
+        ChatParticipantsResponse response = chatHistoryService.createGroupChat(
+                List.of(userId1, userId2, userId1, userId3));
+
+        List<UUID> members = List.of(userId1, userId2, userId3);
+        assertEquals(members, response.getUserIds());
+        verify(chatMemberBatchRepository).addMembers(response.getChatId(), members);
+        verify(userInboxRepository).insertEmptyAll(members, response.getChatId());
+        verifyNoInteractions(messageControllerApi);
+    }
+
+    @Test
+    void addUsersToChat_ClearsParticipantCacheOnce() {
+        chatHistoryService.addUsersToChat(chatId, List.of(userId1, userId2));
+
+        verify(chatMemberBatchRepository).addMembers(chatId, List.of(userId1, userId2));
+        verify(messageControllerApi, times(1)).clearCache(chatId);
+    }
+
+    @Test
+    void addUsersToChat_ClearsParticipantCacheOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            chatHistoryService.addUsersToChat(chatId, List.of(userId1));
+
+            verifyNoInteractions(messageControllerApi);
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(messageControllerApi).clearCache(chatId);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void addUsersToChat_RejectsEmptyAndOversizedRequests() {
+        List<UUID> tooMany = java.util.stream.Stream.generate(UUID::randomUUID)
+                .limit(ChatHistoryService.MAX_GROUP_MEMBERS + 1)
+                .toList();
+
+        assertThrows(IllegalArgumentException.class, () -> chatHistoryService.addUsersToChat(chatId, List.of()));
+        assertThrows(IllegalArgumentException.class, () -> chatHistoryService.addUsersToChat(chatId, tooMany));
+        verifyNoInteractions(chatMemberBatchRepository, messageControllerApi);
+    }
+
+    @Test
+    void getUserChats_ReturnsChatsFromMembership() {
+        UUID otherChatId = UUID.randomUUID();
+        when(chatMemberRepository.findChatIdsByUserId(userId1)).thenReturn(List.of(chatId, otherChatId));
+
+        assertEquals(List.of(chatId, otherChatId), chatHistoryService.getUserChats(userId1));
+    }
+
     @Test
     void getUserIdsForChat_ReturnsEmptyListForNonExistentChat() {
-        when(chatRepository.findAllByChatId(chatId)).thenReturn(List.of());
+        when(chatMemberRepository.findUserIdsByChatId(chatId)).thenReturn(List.of());
 
         ChatParticipantsResponse response = chatHistoryService.getUserIdsForChat(chatId);
 
@@ -112,24 +225,286 @@ class ChatHistoryServiceTest {
                 .messageTime(LocalDateTime.now())
                 .build();
 
-        when(messageRepository.findByChatIdAndMessageTimeBetween(chatId, from, to))
-                .thenReturn(List.of(message1, message2));
+        long bucket = timeBuckets.bucketOf(from);
+        // The range may cross into the next bucket
+        lenient().when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(), eq(from), eq(to),
+                any(Sort.class))).thenReturn(List.of());
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(bucket), eq(from), eq(to),
+                any(Sort.class))).thenReturn(List.of(message1, message2));
 
         List<Message> result = chatHistoryService.getMessages(chatId, from, to);
 
-        assertEquals(2, result.size());
-        verify(messageRepository).findByChatIdAndMessageTimeBetween(chatId, from, to);
+        assertEquals(List.of(message1, message2), result);
     }
 
     @Test
     void getMessages_ReturnsEmptyListWhenNoMessages() {
         LocalDateTime from = LocalDateTime.now();
         LocalDateTime to = from.plusHours(1);
-        when(messageRepository.findByChatIdAndMessageTimeBetween(chatId, from, to))
-                .thenReturn(List.of());
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(), eq(from), eq(to),
+                any(Sort.class))).thenReturn(List.of());
 
         List<Message> result = chatHistoryService.getMessages(chatId, from, to);
 
         assertTrue(result.isEmpty());
     }
+
+    @Test
+    void getMessages_WalksEveryBucketInTheRange() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.minusDays(21);
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(), eq(from), eq(to),
+                any(Sort.class))).thenReturn(List.of());
+
+        chatHistoryService.getMessages(chatId, from, to);
+
+        for (long bucket = timeBuckets.bucketOf(from); bucket <= timeBuckets.bucketOf(to); bucket++) {
+            verify(messageRepository).findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(bucket), eq(from),
+                    eq(to), any(Sort.class));
+        }
+    }
+
+    @Test
+    void getMessages_RejectsRangeOverBucketLimit() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.minusDays(7L * ChatHistoryService.MAX_BUCKETS_PER_RANGE);
+
+        assertThrows(IllegalArgumentException.class, () -> chatHistoryService.getMessages(chatId, from, to));
+        verifyNoInteractions(messageRepository, tailCache);
+    }
+
+    @Test
+    void getMessages_ServesRangeInsideTailCacheWithoutCassandra() {
+        LocalDateTime now = LocalDateTime.now();
+        Message older = message(now.minusMinutes(10));
+        Message newer = message(now.minusMinutes(1));
+        when(tailCache.read(chatId)).thenReturn(Optional.of(
+                new TailCache.Window(List.of(older, newer), now.minusHours(1))));
+
+        List<Message> result = chatHistoryService.getMessages(chatId, now.minusMinutes(5), now);
+
+        assertEquals(List.of(newer), result);
+        verify(tailCache).record(TailCache.Result.HIT);
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void getMessages_ReadsOnlyThePartBeforeTheCachedWindowFromCassandra() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime completeFrom = now.minusHours(1);
+        LocalDateTime from = now.minusHours(3);
+        Message stored = message(now.minusHours(2));
+        Message cached = message(now.minusMinutes(1));
+        when(tailCache.read(chatId)).thenReturn(Optional.of(new TailCache.Window(List.of(cached), completeFrom)));
+        lenient().when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(),
+                eq(from), eq(completeFrom), any(Sort.class))).thenReturn(List.of());
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId),
+                eq(timeBuckets.bucketOf(stored.getMessageTime())), eq(from), eq(completeFrom), any(Sort.class)))
+                .thenReturn(List.of(stored));
+
+        List<Message> result = chatHistoryService.getMessages(chatId, from, now);
+
+        assertEquals(List.of(stored, cached), result);
+        verify(tailCache).record(TailCache.Result.PARTIAL);
+    }
+
+    @Test
+    void getLatestMessages_ServesTailFromCache() {
+        LocalDateTime now = LocalDateTime.now();
+        List<Message> cached = List.of(message(now.minusMinutes(3)), message(now.minusMinutes(2)),
+                message(now.minusMinutes(1)));
+        when(tailCache.getCapacity()).thenReturn(200);
+        when(tailCache.read(chatId)).thenReturn(Optional.of(new TailCache.Window(cached, now.minusHours(1))));
+
+        List<Message> result = chatHistoryService.getLatestMessages(chatId, 2);
+
+        assertEquals(cached.subList(1, 3), result);
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void getLatestMessages_SeedsCacheOnMiss() {
+        LocalDateTime now = LocalDateTime.now();
+        Message older = message(now.minusMinutes(2));
+        Message newer = message(now.minusMinutes(1));
+        when(tailCache.getCapacity()).thenReturn(200);
+        when(chatMemberRepository.findCreatedAt(chatId)).thenReturn(Optional.of(now.minusDays(30)));
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(), any(), any(),
+                any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<Message>(List.of(), invocation.getArgument(4), false));
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId),
+                eq(timeBuckets.bucketOf(now)), any(), any(), any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<>(List.of(newer, older), invocation.getArgument(4), false));
+
+        List<Message> result = chatHistoryService.getLatestMessages(chatId, null);
+
+        assertEquals(List.of(older, newer), result);
+        verify(tailCache).record(TailCache.Result.MISS);
+        // The walk reached the chat's creation, so the cache holds its whole history
+        verify(tailCache).fill(chatId, List.of(older, newer), ChatHistoryService.WHOLE_HISTORY);
+    }
+
+    @Test
+    void getLatestMessages_FollowsCursorPastLongIdleStretch() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime createdAt = now.minusYears(3);
+        Message first = message(createdAt.plusHours(1));
+        when(tailCache.getCapacity()).thenReturn(200);
+        when(chatMemberRepository.findCreatedAt(chatId)).thenReturn(Optional.of(createdAt));
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(), any(), any(),
+                any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<Message>(List.of(), invocation.getArgument(4), false));
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId),
+                eq(timeBuckets.bucketOf(first.getMessageTime())), any(), any(), any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<>(List.of(first), invocation.getArgument(4), false));
+
+        List<Message> result = chatHistoryService.getLatestMessages(chatId, null);
+
+        assertEquals(List.of(first), result);
+        verify(tailCache).fill(chatId, List.of(first), ChatHistoryService.WHOLE_HISTORY);
+        // Nothing before the chat's creation is read
+        verify(messageRepository, never()).findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId),
+                eq(timeBuckets.bucketOf(createdAt.minusDays(14))), any(), any(), any(Pageable.class));
+    }
+
+    @Test
+    void getLatestMessages_EmptyForUnknownChat() {
+        when(tailCache.getCapacity()).thenReturn(200);
+        when(chatMemberRepository.findCreatedAt(chatId)).thenReturn(Optional.empty());
+
+        assertTrue(chatHistoryService.getLatestMessages(chatId, null).isEmpty());
+        verifyNoInteractions(messageRepository);
+    }
+
+    private Message message(LocalDateTime time) {
+        return Message.builder()
+                .chatId(chatId)
+                .userId(userId1)
+                .messageId(UUID.randomUUID())
+                .messageContent("text")
+                .messageTime(time)
+                .build();
+    }
+
+    @Test
+    void getMessagePage_ResumesFromPagingStateInsideBucket() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.minusDays(30);
+        long newest = timeBuckets.bucketOf(to);
+        Message message = Message.builder().chatId(chatId).userId(userId1).messageTime(to).build();
+        ByteBuffer pagingState = ByteBuffer.wrap("state".getBytes(StandardCharsets.UTF_8));
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(newest), eq(from), eq(to),
+                any(Pageable.class)))
+                .thenAnswer(invocation -> {
+                    Pageable pageable = invocation.getArgument(4);
+                    return new SliceImpl<>(List.of(message), CassandraPageRequest.of(pageable, pagingState), true);
+                });
+
+        MessagePage page = chatHistoryService.getMessagePage(chatId, from, to, 1, null);
+
+        assertEquals(List.of(message), page.getMessages());
+        assertNotNull(page.getNextCursor());
+
+        chatHistoryService.getMessagePage(chatId, from, to, 1, page.getNextCursor());
+
+        ArgumentCaptor<Pageable> pageables = ArgumentCaptor.forClass(Pageable.class);
+        verify(messageRepository, times(2)).findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(newest),
+                eq(from), eq(to), pageables.capture());
+        CassandraPageRequest resumed = (CassandraPageRequest) pageables.getAllValues().get(1);
+        assertEquals(pagingState, resumed.getPagingState());
+        assertEquals(Sort.Direction.DESC, resumed.getSort().getOrderFor("messageTime").getDirection());
+    }
+
+    @Test
+    void getMessagePage_FillsFromOlderBucketsAndStopsWhenFull() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.minusDays(60);
+        long newest = timeBuckets.bucketOf(to);
+        Message recent = Message.builder().chatId(chatId).messageTime(to).build();
+        Message older = Message.builder().chatId(chatId).messageTime(to.minusDays(7)).build();
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(newest), eq(from), eq(to),
+                any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<>(List.of(recent), invocation.getArgument(4), false));
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(newest - 1), eq(from),
+                eq(to), any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<>(List.of(older), invocation.getArgument(4), false));
+
+        MessagePage page = chatHistoryService.getMessagePage(chatId, from, to, 2, null);
+
+        assertEquals(List.of(recent, older), page.getMessages());
+        assertEquals((newest - 2) + ".", page.getNextCursor());
+        verify(messageRepository, never()).findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), eq(newest - 2),
+                any(), any(), any(Pageable.class));
+    }
+
+    @Test
+    void getMessagePage_CapsPageSizeAndEndsWithoutCursor() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.minusHours(1);
+        when(messageRepository.findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(), eq(from), eq(to),
+                any(Pageable.class)))
+                .thenAnswer(invocation -> new SliceImpl<Message>(List.of(), invocation.getArgument(4), false));
+
+        MessagePage page = chatHistoryService.getMessagePage(chatId, from, to, 10_000, null);
+
+        assertNull(page.getNextCursor());
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(messageRepository, atLeastOnce()).findByChatIdAndTimeBucketAndMessageTimeBetween(eq(chatId), anyLong(),
+                eq(from), eq(to), pageable.capture());
+        assertEquals(ChatHistoryService.MAX_PAGE_SIZE, pageable.getAllValues().get(0).getPageSize());
+    }
+
+    @Test
+    void getMessagePage_RejectsMalformedCursor() {
+        LocalDateTime to = LocalDateTime.now();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> chatHistoryService.getMessagePage(chatId, to.minusDays(1), to, null, "not-a-bucket.x"));
+        assertThrows(IllegalArgumentException.class,
+                () -> chatHistoryService.getMessagePage(chatId, to.minusDays(1), to, null, "1.not base64!"));
+        // No separator: neither a bucket boundary nor a paging state
+        assertThrows(IllegalArgumentException.class,
+                () -> chatHistoryService.getMessagePage(chatId, to.minusDays(1), to, null, "123"));
+    }
+
+    @Test
+    void streamMessages_OpensOneBucketAtATimeAndClosesEach() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.minusDays(14);
+        long buckets = timeBuckets.bucketOf(to) - timeBuckets.bucketOf(from) + 1;
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        when(cassandraOperations.stream(any(Query.class), eq(Message.class))).thenAnswer(invocation -> {
+            opened.incrementAndGet();
+            return Stream.of(message(to)).onClose(closed::incrementAndGet);
+        });
+
+        try (Stream<Message> messages = chatHistoryService.streamMessages(chatId, from, to)) {
+            Iterator<Message> rows = messages.iterator();
+            rows.next();
+            assertEquals(1, opened.get());
+            rows.forEachRemaining(message -> assertTrue(opened.get() - closed.get() <= 1));
+        }
+
+        assertEquals(buckets, opened.get());
+        assertEquals(buckets, closed.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void getInbox_TakesUnreadCountsFromRedis() {
+        UUID otherChat = UUID.randomUUID();
+        LocalDateTime now = LocalDateTime.now();
+        when(userInboxRepository.findByUserId(userId1, ChatHistoryService.MAX_INBOX_SIZE)).thenReturn(List.of(
+                new InboxEntry(chatId, UUID.randomUUID(), userId2, "hi", now, 0),
+                new InboxEntry(otherChat, null, null, null, now.minusDays(1), 0)));
+        HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+        when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.entries("unread:{" + userId1 + "}")).thenReturn(Map.of(chatId.toString(), "3"));
+
+        List<InboxEntry> inbox = chatHistoryService.getInbox(userId1, null);
+
+        assertEquals(3, inbox.get(0).getUnreadCount());
+        assertEquals(0, inbox.get(1).getUnreadCount());
+    }
 }
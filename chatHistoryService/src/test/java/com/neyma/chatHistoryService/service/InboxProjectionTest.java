@@ -0,0 +1,107 @@
+package com.neyma.chatHistoryService.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.neyma.chatHistoryService.dto.MessageEvent;
+import com.neyma.chatHistoryService.repository.UserInboxRepository;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboxProjectionTest {
+
+    @Mock
+    private UserInboxRepository userInboxRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private InboxProjection inboxProjection;
+
+    private final UUID chatId = UUID.randomUUID();
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        inboxProjection = new InboxProjection(userInboxRepository, objectMapper);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void listen_FoldsBatchIntoOneUpdatePerUserAndChat() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        UUID lastMessage = UUID.randomUUID();
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+                record(event(alice, bob, "first", now, UUID.randomUUID())),
+                record(event(alice, alice, "first", now, UUID.randomUUID())),
+                record(event(alice, bob, "second", now.plusSeconds(1), lastMessage)),
+                record(event(alice, alice, "second", now.plusSeconds(1), lastMessage)));
+
+        inboxProjection.listen(records);
+
+        ArgumentCaptor<Collection<UserInboxRepository.Update>> updates = ArgumentCaptor.forClass(Collection.class);
+        verify(userInboxRepository).upsertAll(updates.capture());
+        List<UserInboxRepository.Update> applied = new ArrayList<>(updates.getValue());
+        assertEquals(2, applied.size());
+
+        UserInboxRepository.Update bobs = applied.get(0);
+        assertEquals(bob, bobs.userId());
+        assertEquals(lastMessage, bobs.messageId());
+        assertEquals("second", bobs.preview());
+
+        UserInboxRepository.Update alices = applied.get(1);
+        assertEquals(alice, alices.userId());
+        assertEquals(lastMessage, alices.messageId());
+    }
+
+    @Test
+    void listen_SkipsUnreadableRecords() {
+        inboxProjection.listen(List.of(new ConsumerRecord<>("message", 0, 0, bob.toString(), "not json".getBytes())));
+
+        verifyNoInteractions(userInboxRepository);
+    }
+
+    @Test
+    void fold_KeepsNewestMessageWhenEventsArriveOutOfOrder() {
+        LocalDateTime now = LocalDateTime.now();
+        UserInboxRepository.Update newer = new UserInboxRepository.Update(bob, chatId, UUID.randomUUID(), alice,
+                "newer", now);
+        UserInboxRepository.Update older = new UserInboxRepository.Update(bob, chatId, UUID.randomUUID(), alice,
+                "older", now.minusSeconds(5));
+
+        UserInboxRepository.Update folded = InboxProjection.fold(newer, older);
+
+        assertEquals("newer", folded.preview());
+    }
+
+    private MessageEvent event(UUID sender, UUID receiver, String text, LocalDateTime time, UUID messageId) {
+        return MessageEvent.builder()
+                .sender(sender)
+                .receiver(receiver)
+                .message(text)
+                .messageTime(time)
+                .messageId(messageId)
+                .chatId(chatId)
+                .build();
+    }
+
+    private ConsumerRecord<String, byte[]> record(MessageEvent event) throws Exception {
+        return new ConsumerRecord<>("message", 0, 0, event.getReceiver().toString(),
+                objectMapper.writeValueAsBytes(event));
+    }
+}
@@ -0,0 +1,181 @@
+package com.neyma.chatHistoryService.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.neyma.chatHistoryService.dto.MessageEvent;
+import com.neyma.chatHistoryService.entity.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TailCacheTest {
+
+    private static final Duration TTL = Duration.ofDays(1);
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final UUID chatId = UUID.randomUUID();
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+    @Test
+    void listen_AppendsSenderCopiesScoredByMessageTime() throws Exception {
+        MessageEvent newer = event(alice, alice, now);
+        MessageEvent older = event(bob, bob, now.minusSeconds(5));
+
+        tailCache(200).listen(List.of(record(newer), record(event(alice, bob, now)), record(older)));
+
+        Object[] args = scriptArgs();
+        assertEquals(List.of("200", String.valueOf(TTL.toMillis()), millis(older.getMessageTime()),
+                millis(older.getMessageTime())), List.of(args).subList(0, 4));
+        assertEquals(7, args.length);
+        // Oldest first, each message preceded by its score
+        assertEquals(older.getMessageId(), parse(args[4]).getMessageId());
+        assertEquals(millis(newer.getMessageTime()), args[5]);
+        assertEquals(newer.getMessageId(), parse(args[6]).getMessageId());
+    }
+
+    @Test
+    void fill_PassesIdTimeAndMessageNewestFirstUpToCapacity() throws Exception {
+        Message oldest = message(now.minusMinutes(3));
+        Message middle = message(now.minusMinutes(2));
+        Message newest = message(now.minusMinutes(1));
+
+        tailCache(2).fill(chatId, List.of(oldest, middle, newest), ChatHistoryService.WHOLE_HISTORY);
+
+        Object[] args = scriptArgs();
+        assertEquals(List.of(String.valueOf(TTL.toMillis()), "0", "2"), List.of(args).subList(0, 3));
+        assertEquals(9, args.length);
+        assertEquals(newest.getMessageId().toString(), args[3]);
+        assertEquals(millis(newest.getMessageTime()), args[4]);
+        assertEquals(newest, parse(args[5]));
+        assertEquals(middle.getMessageId().toString(), args[6]);
+        assertEquals(millis(middle.getMessageTime()), args[7]);
+        assertEquals(middle, parse(args[8]));
+    }
+
+    @Test
+    void fill_SkipsEmptyTail() {
+        tailCache(200).fill(chatId, List.of(), ChatHistoryService.WHOLE_HISTORY);
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void read_ReturnsMessagesOldestFirstWithoutDuplicates() throws Exception {
+        Message older = message(now.minusMinutes(2));
+        Message newer = message(now.minusMinutes(1));
+        LocalDateTime completeFrom = now.minusHours(1);
+        stubRead(List.of(millis(completeFrom), json(older), json(newer), json(newer), "not json"));
+
+        Optional<TailCache.Window> window = tailCache(200).read(chatId);
+
+        assertTrue(window.isPresent());
+        assertEquals(List.of(older, newer), window.get().messages());
+        assertEquals(completeFrom, window.get().completeFrom());
+    }
+
+    @Test
+    void read_CompleteOnlyFromOldestEntryOnceAtCapacity() throws Exception {
+        Message older = message(now.minusMinutes(2));
+        Message newer = message(now.minusMinutes(1));
+        stubRead(List.of("0", json(older), json(newer)));
+
+        TailCache.Window window = tailCache(2).read(chatId).orElseThrow();
+
+        // Anything before the oldest cached message may have been trimmed
+        assertEquals(older.getMessageTime(), window.completeFrom());
+    }
+
+    @Test
+    void read_EmptyWithoutMarkerOrWhenRedisFails() {
+        TailCache tailCache = tailCache(200);
+        stubRead(List.of());
+        assertTrue(tailCache.read(chatId).isEmpty());
+
+        when(redisTemplate.execute(any(RedisScript.class), eq(TailCache.keys(chatId))))
+                .thenThrow(new IllegalStateException("down"));
+        assertTrue(tailCache.read(chatId).isEmpty());
+    }
+
+    private TailCache tailCache(int capacity) {
+        return new TailCache(redisTemplate, objectMapper, new TimeBuckets(Duration.ofDays(7)),
+                new SimpleMeterRegistry(), capacity, TTL);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object[] scriptArgs() {
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(TailCache.keys(chatId)), args.capture());
+        return args.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubRead(List<String> values) {
+        doReturn(new ArrayList<>(values)).when(redisTemplate).execute(any(RedisScript.class), eq(TailCache.keys(chatId)));
+    }
+
+    private MessageEvent event(UUID sender, UUID receiver, LocalDateTime time) {
+        return MessageEvent.builder()
+                .sender(sender)
+                .receiver(receiver)
+                .chatId(chatId)
+                .message("hi")
+                .messageTime(time)
+                .messageId(UUID.randomUUID())
+                .build();
+    }
+
+    private ConsumerRecord<String, byte[]> record(MessageEvent event) throws Exception {
+        return new ConsumerRecord<>("message", 0, 0, event.getReceiver().toString(),
+                objectMapper.writeValueAsBytes(event));
+    }
+
+    private Message message(LocalDateTime time) {
+        return Message.builder()
+                .chatId(chatId)
+                .userId(alice)
+                .messageId(UUID.randomUUID())
+                .messageContent("text")
+                .messageTime(time)
+                .build();
+    }
+
+    private String json(Message message) throws Exception {
+        return objectMapper.writeValueAsString(message);
+    }
+
+    private Message parse(Object json) throws Exception {
+        return objectMapper.readValue((String) json, Message.class);
+    }
+
+    private static String millis(LocalDateTime time) {
+        return String.valueOf(time.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+}
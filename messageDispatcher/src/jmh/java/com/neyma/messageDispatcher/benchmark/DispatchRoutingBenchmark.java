@@ -0,0 +1,74 @@
+package com.neyma.messageDispatcher.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neyma.messageDispatcher.service.RecordRouting;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record routing cost in the dispatcher: the previous path (decode the value to
+ * a String, build a Jackson tree to read "receiver", re-encode for PUBLISH) against
+ * routing from the record key and forwarding the value bytes untouched.
+ *
+ * Run with: ./gradlew :messageDispatcher:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchRoutingBenchmark {
+
+    @Param({"32", "1024", "16384"})
+    public int contentLength;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String key;
+    private Headers headers;
+    private byte[] value;
+
+    @Setup
+    public void setUp() {
+        UUID receiver = UUID.randomUUID();
+        String json = "{\"sender\":\"" + UUID.randomUUID() + "\","
+                + "\"receiver\":\"" + receiver + "\","
+                + "\"message\":\"" + "x".repeat(contentLength) + "\","
+                + "\"receiverName\":\"User One\","
+                + "\"messageTime\":\"2024-06-01T12:00:00.000\","
+                + "\"messageId\":\"" + UUID.randomUUID() + "\","
+                + "\"chatId\":\"" + UUID.randomUUID() + "\"}";
+        key = receiver.toString();
+        headers = new RecordHeaders().add(RecordRouting.RECEIVER_HEADER, key.getBytes(StandardCharsets.UTF_8));
+        value = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void readTree(Blackhole blackhole) throws Exception {
+        String message = new String(value, StandardCharsets.UTF_8);
+        JsonNode node = objectMapper.readTree(message);
+        String channel = "inbox:user:" + node.get("receiver").asText();
+        blackhole.consume(ByteBuffer.wrap(channel.getBytes(StandardCharsets.UTF_8)));
+        blackhole.consume(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public void recordKey(Blackhole blackhole) {
+        String channel = "inbox:user:" + RecordRouting.receiverOf(key, headers);
+        blackhole.consume(ByteBuffer.wrap(channel.getBytes(StandardCharsets.UTF_8)));
+        blackhole.consume(ByteBuffer.wrap(value));
+    }
+}
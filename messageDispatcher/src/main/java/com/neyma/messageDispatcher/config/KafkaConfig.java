@@ -0,0 +1,58 @@
+package com.neyma.messageDispatcher.config;
+
+import com.neyma.messageDispatcher.service.PoisonRecordException;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
+
+import java.time.Duration;
+
+@Configuration
+public class KafkaConfig {
+
+    public static final String MESSAGE_TOPIC = "message";
+    public static final String DEAD_LETTER_TOPIC = MESSAGE_TOPIC + ".DLT";
+
+    // Listener concurrency is bound to the same property, one consumer per partition
+    @Bean
+    public NewTopic messageTopic(@Value("${dispatcher.topic.partitions:6}") int partitions) {
+        return TopicBuilder.name(MESSAGE_TOPIC).partitions(partitions).build();
+    }
+
+    @Bean
+    public NewTopic deadLetterTopic(@Value("${dispatcher.topic.partitions:6}") int partitions) {
+        return TopicBuilder.name(DEAD_LETTER_TOPIC).partitions(partitions).build();
+    }
+
+    /**
+     * Failed batches are retried with exponential backoff; once retries are used up
+     * (or straight away for records that can never be routed) the failing records are
+     * published to message.DLT on the same partition and their offsets committed.
+     */
+    @Bean
+    public CommonErrorHandler kafkaErrorHandler(
+            KafkaOperations<Object, Object> kafkaTemplate,
+            @Value("${dispatcher.retry.max-retries:5}") int maxRetries,
+            @Value("${dispatcher.retry.initial-interval:500ms}") Duration initialInterval,
+            @Value("${dispatcher.retry.max-interval:10s}") Duration maxInterval) {
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(kafkaTemplate,
+                (record, exception) -> new TopicPartition(DEAD_LETTER_TOPIC, record.partition()));
+
+        ExponentialBackOffWithMaxRetries backOff = new ExponentialBackOffWithMaxRetries(maxRetries);
+        backOff.setInitialInterval(initialInterval.toMillis());
+        backOff.setMultiplier(2.0);
+        backOff.setMaxInterval(maxInterval.toMillis());
+
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, backOff);
+        errorHandler.addNotRetryableExceptions(PoisonRecordException.class);
+        return errorHandler;
+    }
+}
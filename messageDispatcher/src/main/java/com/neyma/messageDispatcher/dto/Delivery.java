@@ -0,0 +1,25 @@
+package com.neyma.messageDispatcher.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class Delivery {
+    private String channel;
+    // Set when the delivery targets a messagingService instance rather than a single user
+    private String instanceId;
+    private byte[] payload;
+    // The individual messages carried by this publish (one for a user inbox, many for an instance inbox)
+    private List<InboxMessage> messages;
+
+    public static Delivery toUser(InboxMessage message) {
+        return new Delivery("inbox:user:" + message.getReceiverId(), null, message.getPayload(), List.of(message));
+    }
+
+    public static Delivery toInstance(String instanceId, byte[] payload, List<InboxMessage> messages) {
+        return new Delivery("inbox:instance:" + instanceId, instanceId, payload, messages);
+    }
+}
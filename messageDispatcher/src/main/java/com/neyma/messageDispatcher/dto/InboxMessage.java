@@ -0,0 +1,12 @@
+package com.neyma.messageDispatcher.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class InboxMessage {
+    private String receiverId;
+    // Raw record value, forwarded to Redis without being decoded
+    private byte[] payload;
+}
@@ -0,0 +1,87 @@
+package com.neyma.messageDispatcher.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves receivers to the messagingService instance they are connected to, using
+ * the user_service:<userId> assignments maintained by the service registry. Lookups
+ * are cached locally for a short time so a busy chat costs one MGET per TTL window.
+ */
+@Service
+public class AssignmentResolver {
+
+    private static final String ASSIGNMENT_KEY_PREFIX = "user_service:";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final long ttlNanos;
+    private final Map<String, CachedAssignment> cache = new ConcurrentHashMap<>();
+
+    public AssignmentResolver(
+            ReactiveStringRedisTemplate redisTemplate,
+            @Value("${dispatcher.routing.cache-ttl:PT5S}") Duration cacheTtl) {
+        this.redisTemplate = redisTemplate;
+        this.ttlNanos = cacheTtl.toNanos();
+    }
+
+    /**
+     * Returns receiverId -> instanceId for every receiver that currently has an
+     * assignment. Receivers without one are left out of the map.
+     */
+    public Mono<Map<String, String>> resolve(Collection<String> receiverIds) {
+        long now = System.nanoTime();
+        Map<String, String> resolved = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+
+        for (String receiverId : receiverIds) {
+            CachedAssignment cached = cache.get(receiverId);
+            if (cached != null && cached.expiresAt() - now > 0) {
+                cached.instanceId().ifPresent(instanceId -> resolved.put(receiverId, instanceId));
+            } else {
+                misses.add(receiverId);
+            }
+        }
+
+        if (misses.isEmpty()) {
+            return Mono.just(resolved);
+        }
+
+        List<String> keys = misses.stream().map(id -> ASSIGNMENT_KEY_PREFIX + id).toList();
+        return redisTemplate.opsForValue().multiGet(keys)
+                .map(values -> {
+                    long expiresAt = System.nanoTime() + ttlNanos;
+                    for (int i = 0; i < misses.size(); i++) {
+                        String receiverId = misses.get(i);
+                        Optional<String> instanceId = Optional.ofNullable(values.get(i));
+                        cache.put(receiverId, new CachedAssignment(instanceId, expiresAt));
+                        instanceId.ifPresent(id -> resolved.put(receiverId, id));
+                    }
+                    return resolved;
+                });
+    }
+
+    public void evict(String receiverId) {
+        cache.remove(receiverId);
+    }
+
+    @Scheduled(fixedDelayString = "${dispatcher.routing.cache-ttl:PT5S}")
+    public void purgeExpired() {
+        long now = System.nanoTime();
+        cache.values().removeIf(cached -> cached.expiresAt() - now <= 0);
+    }
+
+    private record CachedAssignment(Optional<String> instanceId, long expiresAt) {
+    }
+}
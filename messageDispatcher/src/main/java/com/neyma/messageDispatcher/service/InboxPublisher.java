@@ -0,0 +1,98 @@
+package com.neyma.messageDispatcher.service;
+
+import com.neyma.messageDispatcher.config.DeliveryTransport;
+import com.neyma.messageDispatcher.dto.Delivery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+@Service
+public class InboxPublisher {
+
+    // KEYS[1] = instance stream, KEYS[2] = instance heartbeat
+    // ARGV[1] = max length, ARGV[2] = stream ttl millis, ARGV[3] = payload
+    private static final RedisScript<Long> STREAM_APPEND = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[2]) == 0 then
+                return 0
+            end
+            redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', 'payload', ARGV[3])
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // The channel is passed as a key so cluster clients route the call to the shard
+    // that owns the channel's slot, which is where SPUBLISH has to run.
+    private static final RedisScript<Long> SHARDED_PUBLISH = RedisScript.of(
+            "return redis.call('SPUBLISH', KEYS[1], ARGV[1])", Long.class);
+
+    private static final RedisElementWriter<byte[]> RAW_WRITER = RedisElementWriter.from(RedisSerializer.byteArray());
+    private static final RedisElementReader<Long> LONG_READER = RedisElementReader
+            .from(new GenericToStringSerializer<>(Long.class));
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final DeliveryTransport transport;
+    private final byte[] streamMaxLength;
+    private final byte[] streamTtlMillis;
+
+    public InboxPublisher(
+            ReactiveStringRedisTemplate redisTemplate,
+            @Value("${delivery.transport:pubsub}") DeliveryTransport transport,
+            @Value("${delivery.stream.max-length:10000}") long streamMaxLength,
+            @Value("${delivery.stream.ttl:1h}") Duration streamTtl) {
+        this.redisTemplate = redisTemplate;
+        this.transport = transport;
+        this.streamMaxLength = ascii(String.valueOf(streamMaxLength));
+        this.streamTtlMillis = ascii(String.valueOf(streamTtl.toMillis()));
+    }
+
+    /**
+     * Sends a whole batch over the shared connection. All commands are written
+     * without waiting for replies (pipelined), and the returned list holds the
+     * number of receivers reached by each delivery, in input order. A stream
+     * append counts as one receiver while the target instance is alive; a sharded
+     * publish counts the subscribers on the owning shard.
+     */
+    public Mono<List<Long>> publish(List<Delivery> deliveries) {
+        if (deliveries.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        return Flux.fromIterable(deliveries)
+                .flatMapSequential(this::send, deliveries.size())
+                .collectList();
+    }
+
+    private Mono<Long> send(Delivery delivery) {
+        if (transport == DeliveryTransport.STREAM && delivery.getInstanceId() != null) {
+            return redisTemplate.execute(STREAM_APPEND,
+                            List.of("inbox:stream:" + delivery.getInstanceId(),
+                                    "service:alive:" + delivery.getInstanceId()),
+                            List.of(streamMaxLength, streamTtlMillis, delivery.getPayload()),
+                            RAW_WRITER, LONG_READER)
+                    .next();
+        }
+        if (transport == DeliveryTransport.SHARDED) {
+            return redisTemplate.execute(SHARDED_PUBLISH, List.of(delivery.getChannel()),
+                            List.of(delivery.getPayload()), RAW_WRITER, LONG_READER)
+                    .next();
+        }
+        return redisTemplate.execute(connection -> connection.pubSubCommands().publish(
+                        ByteBuffer.wrap(ascii(delivery.getChannel())), ByteBuffer.wrap(delivery.getPayload())))
+                .next();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
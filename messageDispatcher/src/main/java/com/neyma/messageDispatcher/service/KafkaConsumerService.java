@@ -2,38 +2,231 @@ package com.neyma.messageDispatcher.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import com.neyma.messageDispatcher.config.KafkaConfig;
+import com.neyma.messageDispatcher.dto.Delivery;
+import com.neyma.messageDispatcher.dto.InboxMessage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 public class KafkaConsumerService {
 
-    private final ReactiveStringRedisTemplate redisTemplate;
+    private static final Logger logger = LoggerFactory.getLogger(KafkaConsumerService.class);
+
+    private final InboxPublisher inboxPublisher;
+    private final AssignmentResolver assignmentResolver;
+    private final OfflineInbox offlineInbox;
+    private final UnreadCounters unreadCounters;
     private final ObjectMapper objectMapper;
+    private final Duration publishTimeout;
+    private final DistributionSummary batchSize;
+    private final DistributionSummary publishesPerBatch;
+    private final Timer batchLatency;
 
-    @KafkaListener(topics = "message", groupId = "message-dispatcher-group")
-    public void listen(String message) {
-        try {
-            JsonNode node = objectMapper.readTree(message);
-            if (node.has("receiver")) {
-                String receiverId = node.get("receiver").asText();
-                String channel = "inbox:user:" + receiverId;
-
-                redisTemplate.convertAndSend(channel, message)
-                        .doOnNext(count -> {
-                            if (count == 0) {
-                                System.out.println("User offline (No active session): " + receiverId);
-                            } else {
-                                System.out.println("Message delivered to user: " + receiverId);
-                            }
-                        })
-                        .subscribe();
+    public KafkaConsumerService(
+            InboxPublisher inboxPublisher,
+            AssignmentResolver assignmentResolver,
+            OfflineInbox offlineInbox,
+            UnreadCounters unreadCounters,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${dispatcher.publish-timeout:5s}") Duration publishTimeout) {
+        this.inboxPublisher = inboxPublisher;
+        this.assignmentResolver = assignmentResolver;
+        this.offlineInbox = offlineInbox;
+        this.unreadCounters = unreadCounters;
+        this.objectMapper = objectMapper;
+        this.publishTimeout = publishTimeout;
+        this.batchSize = DistributionSummary.builder("dispatcher.batch.size")
+                .description("Records per Kafka poll handled by the dispatcher")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.publishesPerBatch = DistributionSummary.builder("dispatcher.batch.publishes")
+                .description("Redis publishes issued per Kafka poll after grouping by instance")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchLatency = Timer.builder("dispatcher.batch.latency")
+                .description("Time from receiving a batch to Redis acknowledging all publishes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Offsets are committed only after the whole batch reached Redis. A failure to
+     * publish propagates to the container's error handler, which retries the batch
+     * with backoff; a record without a receiver ends the batch at that record so the
+     * ones before it are delivered and committed and it is dead-lettered on its own.
+     */
+    @KafkaListener(topics = KafkaConfig.MESSAGE_TOPIC, groupId = "message-dispatcher-group", batch = "true")
+    public void listen(List<ConsumerRecord<String, byte[]>> records, Acknowledgment acknowledgment) {
+        long start = System.nanoTime();
+
+        List<InboxMessage> inboxMessages = new ArrayList<>(records.size());
+        Map<String, Map<String, List<UnreadCounters.Unread>>> unread = new LinkedHashMap<>();
+        int poisonIndex = -1;
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, byte[]> record = records.get(i);
+            String receiverId = RecordRouting.receiverOf(record.key(), record.headers());
+            if (receiverId == null) {
+                receiverId = receiverFromBody(record.value());
             }
+            if (receiverId == null) {
+                poisonIndex = i;
+                break;
+            }
+            inboxMessages.add(new InboxMessage(receiverId, record.value()));
+            countUnread(unread, receiverId, record);
+        }
+
+        // Block the consumer thread until Redis has accepted the whole batch, so the
+        // offsets committed below never run ahead of what was actually published.
+        List<Delivery> deliveries = routeToInstances(inboxMessages).block(publishTimeout);
+        List<Long> counts = inboxPublisher.publish(deliveries).block(publishTimeout);
+
+        // Nobody listening on an instance inbox means the instance is gone: retry
+        // those receivers on their personal channels in case they already moved.
+        List<Delivery> retries = new ArrayList<>();
+        List<InboxMessage> offline = new ArrayList<>();
+        collectUndelivered(deliveries, counts, retries, offline);
+
+        if (!retries.isEmpty()) {
+            List<Long> retryCounts = inboxPublisher.publish(retries).block(publishTimeout);
+            collectUndelivered(retries, retryCounts, new ArrayList<>(), offline);
+        }
+
+        if (!offline.isEmpty()) {
+            logger.debug("Storing {} message(s) for offline users", offline.size());
+            offlineInbox.append(offline).block(publishTimeout);
+        }
+
+        if (!unread.isEmpty()) {
+            unreadCounters.add(unread).block(publishTimeout);
+        }
+
+        batchSize.record(inboxMessages.size());
+        publishesPerBatch.record(deliveries.size() + retries.size());
+        batchLatency.record(Duration.ofNanos(System.nanoTime() - start));
+
+        if (poisonIndex >= 0) {
+            ConsumerRecord<String, byte[]> poison = records.get(poisonIndex);
+            throw new BatchListenerFailedException("Record has no receiver",
+                    new PoisonRecordException("No receiver in " + poison.topic() + "-" + poison.partition()
+                            + "@" + poison.offset()),
+                    poisonIndex);
+        }
+        acknowledgment.acknowledge();
+    }
+
+    // The sender receives its own message too, which never counts as unread. Records
+    // without message id and time headers can't be matched against read receipts and
+    // are not counted.
+    private static void countUnread(Map<String, Map<String, List<UnreadCounters.Unread>>> unread,
+            String receiverId, ConsumerRecord<String, byte[]> record) {
+        String chatId = RecordRouting.header(record.headers(), RecordRouting.CHAT_ID_HEADER);
+        String senderId = RecordRouting.header(record.headers(), RecordRouting.SENDER_HEADER);
+        String messageId = RecordRouting.header(record.headers(), RecordRouting.MESSAGE_ID_HEADER);
+        String messageTime = RecordRouting.header(record.headers(), RecordRouting.MESSAGE_TIME_HEADER);
+        if (chatId == null || messageId == null || messageTime == null || receiverId.equals(senderId)) {
+            return;
+        }
+        try {
+            unread.computeIfAbsent(receiverId, id -> new LinkedHashMap<>())
+                    .computeIfAbsent(chatId, id -> new ArrayList<>())
+                    .add(new UnreadCounters.Unread(messageId, Long.parseLong(messageTime)));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid messageTime header {} on message {}", messageTime, messageId);
+        }
+    }
+
+    // Records produced before routing moved into the key carry the receiver only in the body
+    private String receiverFromBody(byte[] value) {
+        try {
+            JsonNode receiver = objectMapper.readTree(value).get("receiver");
+            return receiver == null ? null : receiver.asText();
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.error("Unreadable record: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void collectUndelivered(List<Delivery> deliveries, List<Long> counts,
+            List<Delivery> retries, List<InboxMessage> offline) {
+        for (int i = 0; i < deliveries.size(); i++) {
+            if (counts.get(i) > 0) {
+                continue;
+            }
+            Delivery delivery = deliveries.get(i);
+            if (delivery.getInstanceId() != null) {
+                for (InboxMessage message : delivery.getMessages()) {
+                    assignmentResolver.evict(message.getReceiverId());
+                    retries.add(Delivery.toUser(message));
+                }
+            } else {
+                offline.addAll(delivery.getMessages());
+            }
+        }
+    }
+
+    // One publish per messagingService instance instead of one per receiver. Receivers
+    // without an assignment fall back to their personal inbox channel.
+    private Mono<List<Delivery>> routeToInstances(List<InboxMessage> inboxMessages) {
+        Set<String> receiverIds = inboxMessages.stream()
+                .map(InboxMessage::getReceiverId)
+                .collect(Collectors.toSet());
+
+        return assignmentResolver.resolve(receiverIds).map(assignments -> {
+            Map<String, List<InboxMessage>> byInstance = new LinkedHashMap<>();
+            List<Delivery> deliveries = new ArrayList<>();
+
+            for (InboxMessage inboxMessage : inboxMessages) {
+                String instanceId = assignments.get(inboxMessage.getReceiverId());
+                if (instanceId != null) {
+                    byInstance.computeIfAbsent(instanceId, id -> new ArrayList<>()).add(inboxMessage);
+                } else {
+                    deliveries.add(Delivery.toUser(inboxMessage));
+                }
+            }
+
+            byInstance.forEach((instanceId, batch) -> deliveries.add(
+                    Delivery.toInstance(instanceId, jsonArray(batch), batch)));
+            return deliveries;
+        });
+    }
+
+    // Splices the raw record values into a JSON array without parsing them
+    private static byte[] jsonArray(List<InboxMessage> batch) {
+        int size = batch.size() + 1;
+        for (InboxMessage message : batch) {
+            size += message.getPayload().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) '[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                buffer.put((byte) ',');
+            }
+            buffer.put(batch.get(i).getPayload());
         }
+        buffer.put((byte) ']');
+        return buffer.array();
     }
 }
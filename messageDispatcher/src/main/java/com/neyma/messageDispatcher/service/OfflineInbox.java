@@ -0,0 +1,63 @@
+package com.neyma.messageDispatcher.service;
+
+import com.neyma.messageDispatcher.dto.InboxMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Capped per-user list of messages that could not be delivered live. The
+ * messagingService drains it when the user connects.
+ */
+@Service
+public class OfflineInbox {
+
+    // KEYS[1] = offline list, ARGV[1] = max size, ARGV[2] = ttl millis, ARGV[3..] = messages
+    private static final RedisScript<Long> APPEND = RedisScript.of("""
+            local size = redis.call('RPUSH', KEYS[1], unpack(ARGV, 3))
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return size
+            """, Long.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final int maxSize;
+    private final Duration ttl;
+
+    public OfflineInbox(
+            ReactiveStringRedisTemplate redisTemplate,
+            @Value("${offline-inbox.max-size:500}") int maxSize,
+            @Value("${offline-inbox.ttl:7d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    public Mono<Void> append(List<InboxMessage> messages) {
+        Map<String, List<String>> byReceiver = new LinkedHashMap<>();
+        for (InboxMessage message : messages) {
+            byReceiver.computeIfAbsent(message.getReceiverId(), id -> new ArrayList<>())
+                    .add(new String(message.getPayload(), StandardCharsets.UTF_8));
+        }
+
+        return Flux.fromIterable(byReceiver.entrySet())
+                .flatMap(entry -> {
+                    List<Object> args = new ArrayList<>(entry.getValue().size() + 2);
+                    args.add(String.valueOf(maxSize));
+                    args.add(String.valueOf(ttl.toMillis()));
+                    args.addAll(entry.getValue());
+                    return redisTemplate.execute(APPEND, List.of("offline:user:" + entry.getKey()), args);
+                })
+                .then();
+    }
+}
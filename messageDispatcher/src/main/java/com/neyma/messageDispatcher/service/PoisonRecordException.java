@@ -0,0 +1,13 @@
+package com.neyma.messageDispatcher.service;
+
+/**
+ * Thrown for records that can never be delivered, e.g. because no receiver can be
+ * read from them. Retrying these is pointless, so they go straight to the
+ * dead-letter topic.
+ */
+public class PoisonRecordException extends RuntimeException {
+
+    public PoisonRecordException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,36 @@
+package com.neyma.messageDispatcher.service;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Routing metadata carried outside the record value. messageService keys every
+ * record by receiver and mirrors receiver, chatId, sender, messageId and messageTime into headers, so the
+ * dispatcher can route without decoding the JSON body.
+ */
+public final class RecordRouting {
+
+    public static final String RECEIVER_HEADER = "receiver";
+    public static final String CHAT_ID_HEADER = "chatId";
+    public static final String SENDER_HEADER = "sender";
+    public static final String MESSAGE_ID_HEADER = "messageId";
+    // Epoch millis, UTC
+    public static final String MESSAGE_TIME_HEADER = "messageTime";
+
+    private RecordRouting() {
+    }
+
+    public static String receiverOf(String key, Headers headers) {
+        if (key != null && !key.isEmpty()) {
+            return key;
+        }
+        return header(headers, RECEIVER_HEADER);
+    }
+
+    public static String header(Headers headers, String name) {
+        Header header = headers.lastHeader(name);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package com.neyma.messageDispatcher.service;
+
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user unread counters. The unread messages of each (user, chat) are kept in a
+ * sorted set scored by message time (unread_messages:{userId}:chatId), and the
+ * count is mirrored into one hash per user (unread:{userId}) with a field per chat
+ * for the inbox. A read receipt from messagingService removes everything up to the
+ * message read and raises the user's read watermark (read_at:{userId}), so
+ * messages that arrive late for a position already read are not counted.
+ */
+@Service
+public class UnreadCounters {
+
+    // Counts saturate here; the oldest unread messages are dropped from the set
+    static final int MAX_TRACKED = 1000;
+
+    // KEYS[1] = counts hash, KEYS[2] = unread set, KEYS[3] = read watermarks
+    // ARGV[1] = chatId, ARGV[2] = max tracked, ARGV[3..] = message time millis, message id pairs.
+    // Re-adding a redelivered message is a no-op, so Kafka retries don't inflate the count.
+    private static final RedisScript<Long> ADD = RedisScript.of("""
+            local readAt = tonumber(redis.call('HGET', KEYS[3], ARGV[1]) or '-1')
+            for i = 3, #ARGV, 2 do
+                if tonumber(ARGV[i]) > readAt then
+                    redis.call('ZADD', KEYS[2], ARGV[i], ARGV[i + 1])
+                end
+            end
+            redis.call('ZREMRANGEBYRANK', KEYS[2], 0, -tonumber(ARGV[2]) - 1)
+            local count = redis.call('ZCARD', KEYS[2])
+            if count > 0 then
+                redis.call('HSET', KEYS[1], ARGV[1], count)
+            end
+            return count
+            """, Long.class);
+
+    public record Unread(String messageId, long messageTime) {
+    }
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+
+    public UnreadCounters(ReactiveStringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    // All of a user's keys share the hash tag, so the scripts also run on Redis Cluster
+    public static List<String> keys(String userId, String chatId) {
+        return List.of("unread:{" + userId + "}", "unread_messages:{" + userId + "}:" + chatId,
+                "read_at:{" + userId + "}");
+    }
+
+    // userId -> chatId -> messages to add; one script call per (user, chat) for the whole batch
+    public Mono<Void> add(Map<String, Map<String, List<Unread>>> unread) {
+        return Flux.fromIterable(unread.entrySet())
+                .flatMap(user -> Flux.fromIterable(user.getValue().entrySet())
+                        .flatMap(chat -> {
+                            List<String> args = new ArrayList<>(chat.getValue().size() * 2 + 2);
+                            args.add(chat.getKey());
+                            args.add(String.valueOf(MAX_TRACKED));
+                            for (Unread message : chat.getValue()) {
+                                args.add(String.valueOf(message.messageTime()));
+                                args.add(message.messageId());
+                            }
+                            return redisTemplate.execute(ADD, keys(user.getKey(), chat.getKey()), args);
+                        }))
+                .then();
+    }
+}
@@ -0,0 +1,208 @@
+package com.neyma.messageDispatcher.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neyma.messageDispatcher.dto.Delivery;
+import com.neyma.messageDispatcher.dto.InboxMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.Acknowledgment;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaConsumerServiceTest {
+
+    @Mock
+    private InboxPublisher inboxPublisher;
+
+    @Mock
+    private AssignmentResolver assignmentResolver;
+
+    @Mock
+    private OfflineInbox offlineInbox;
+
+    @Mock
+    private UnreadCounters unreadCounters;
+
+    @Mock
+    private Acknowledgment acknowledgment;
+
+    @Captor
+    private ArgumentCaptor<List<Delivery>> deliveries;
+
+    @Captor
+    private ArgumentCaptor<List<InboxMessage>> offline;
+
+    @Captor
+    private ArgumentCaptor<Map<String, Map<String, List<UnreadCounters.Unread>>>> unread;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private KafkaConsumerService kafkaConsumerService;
+
+    private long offset;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(assignmentResolver.resolve(any())).thenReturn(Mono.just(Map.of()));
+        lenient().when(inboxPublisher.publish(anyList())).thenAnswer(invocation -> delivered(invocation.getArgument(0)));
+        lenient().when(offlineInbox.append(anyList())).thenReturn(Mono.empty());
+        lenient().when(unreadCounters.add(any())).thenReturn(Mono.empty());
+        kafkaConsumerService = new KafkaConsumerService(inboxPublisher, assignmentResolver, offlineInbox,
+                unreadCounters, objectMapper, new SimpleMeterRegistry(), Duration.ofSeconds(1));
+    }
+
+    @Test
+    void listen_SplicesInstanceBatchIntoValidJsonArray() throws Exception {
+        when(assignmentResolver.resolve(any())).thenReturn(Mono.just(Map.of("bob", "instance-1", "carol", "instance-1")));
+
+        kafkaConsumerService.listen(List.of(
+                record("bob", "{\"receiver\":\"bob\",\"message\":\"hi, \\\"bob\\\"\"}"),
+                record("carol", "{\"receiver\":\"carol\",\"message\":[1,2]}")), acknowledgment);
+
+        verify(inboxPublisher).publish(deliveries.capture());
+        assertEquals(1, deliveries.getValue().size());
+        Delivery delivery = deliveries.getValue().get(0);
+        assertEquals("instance-1", delivery.getInstanceId());
+        JsonNode payload = objectMapper.readTree(delivery.getPayload());
+        assertTrue(payload.isArray());
+        assertEquals(2, payload.size());
+        assertEquals("hi, \"bob\"", payload.get(0).get("message").asText());
+        assertEquals("carol", payload.get(1).get("receiver").asText());
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void listen_PoisonRecordReportsItsIndexAfterDeliveringTheRecordsBeforeIt() {
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+                record("bob", "{\"receiver\":\"bob\"}"),
+                record("carol", "{\"receiver\":\"carol\"}"),
+                record(null, "{\"message\":\"nobody\"}"),
+                record("dave", "{\"receiver\":\"dave\"}"));
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> kafkaConsumerService.listen(records, acknowledgment));
+
+        assertEquals(2, exception.getIndex());
+        verify(inboxPublisher).publish(deliveries.capture());
+        assertEquals(List.of("bob", "carol"), receivers(deliveries.getValue()));
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void listen_UnreadableRecordIsPoison() {
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class,
+                () -> kafkaConsumerService.listen(List.of(record(null, "not json")), acknowledgment));
+
+        assertEquals(0, exception.getIndex());
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void listen_UnassignedReceiverNobodyListensToGoesToOfflineInbox() {
+        when(inboxPublisher.publish(anyList())).thenAnswer(invocation -> undelivered(invocation.getArgument(0)));
+
+        kafkaConsumerService.listen(List.of(record("bob", "{\"receiver\":\"bob\"}")), acknowledgment);
+
+        verify(inboxPublisher).publish(deliveries.capture());
+        assertEquals("inbox:user:bob", deliveries.getValue().get(0).getChannel());
+        verify(offlineInbox).append(offline.capture());
+        assertEquals("bob", offline.getValue().get(0).getReceiverId());
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void listen_DeadInstanceIsRetriedOnUserChannels() {
+        when(assignmentResolver.resolve(any())).thenReturn(Mono.just(Map.of("bob", "instance-1")));
+        when(inboxPublisher.publish(anyList()))
+                .thenAnswer(invocation -> undelivered(invocation.getArgument(0)))
+                .thenAnswer(invocation -> delivered(invocation.getArgument(0)));
+
+        kafkaConsumerService.listen(List.of(record("bob", "{\"receiver\":\"bob\"}")), acknowledgment);
+
+        verify(assignmentResolver).evict("bob");
+        verify(inboxPublisher, times(2)).publish(deliveries.capture());
+        Delivery retry = deliveries.getAllValues().get(1).get(0);
+        assertNull(retry.getInstanceId());
+        assertEquals("inbox:user:bob", retry.getChannel());
+        verify(offlineInbox, never()).append(anyList());
+    }
+
+    @Test
+    void listen_KeylessRecordFallsBackToReceiverHeaderThenBody() {
+        ConsumerRecord<String, byte[]> withHeader = record(null, "{\"receiver\":\"ignored\"}");
+        withHeader.headers().add(RecordRouting.RECEIVER_HEADER, "bob".getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<String, byte[]> bodyOnly = record("", "{\"receiver\":\"carol\"}");
+
+        kafkaConsumerService.listen(List.of(withHeader, bodyOnly), acknowledgment);
+
+        verify(inboxPublisher).publish(deliveries.capture());
+        assertEquals(List.of("bob", "carol"), receivers(deliveries.getValue()));
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void listen_CollectsUnreadPerReceiverAndChatButNotForTheSender() {
+        kafkaConsumerService.listen(List.of(
+                record("bob", "{}", "chat-1", "alice", "m1", 100),
+                record("alice", "{}", "chat-1", "alice", "m1", 100),
+                record("bob", "{}", "chat-1", "alice", "m2", 200),
+                record("bob", "{}", "chat-2", "carol", "m3", 300),
+                record("bob", "{}")), acknowledgment);
+
+        verify(unreadCounters).add(unread.capture());
+        assertEquals(Map.of("bob", Map.of(
+                        "chat-1", List.of(new UnreadCounters.Unread("m1", 100), new UnreadCounters.Unread("m2", 200)),
+                        "chat-2", List.of(new UnreadCounters.Unread("m3", 300)))),
+                unread.getValue());
+    }
+
+    private ConsumerRecord<String, byte[]> record(String key, String value) {
+        return new ConsumerRecord<>("message", 0, offset++, key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ConsumerRecord<String, byte[]> record(String key, String value, String chatId, String sender,
+            String messageId, long messageTime) {
+        ConsumerRecord<String, byte[]> record = record(key, value);
+        record.headers().add(RecordRouting.CHAT_ID_HEADER, chatId.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(RecordRouting.SENDER_HEADER, sender.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(RecordRouting.MESSAGE_ID_HEADER, messageId.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(RecordRouting.MESSAGE_TIME_HEADER,
+                String.valueOf(messageTime).getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+
+    private static List<String> receivers(List<Delivery> deliveries) {
+        return deliveries.stream()
+                .flatMap(delivery -> delivery.getMessages().stream())
+                .map(InboxMessage::getReceiverId)
+                .toList();
+    }
+
+    private static Mono<List<Long>> delivered(List<Delivery> deliveries) {
+        return Mono.just(Collections.nCopies(deliveries.size(), 1L));
+    }
+
+    private static Mono<List<Long>> undelivered(List<Delivery> deliveries) {
+        return Mono.just(Collections.nCopies(deliveries.size(), 0L));
+    }
+}
@@ -2,17 +2,29 @@ package com.neyma.messageService.controller;
 
 import com.neyma.messageService.dto.MessageRequest;
 import com.neyma.messageService.entity.Message;
+import com.neyma.messageService.service.BlobStore;
 import com.neyma.messageService.service.MessageService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+
 @RestController
 @RequestMapping("/messages")
 @RequiredArgsConstructor
 public class MessageController {
 
+    // Set by the gateway from the authenticated token
+    private static final String USER_ID_HEADER = "X-User-Id";
+
     private final MessageService messageService;
+    private final BlobStore blobStore;
 
     @PostMapping
     public Mono<Message> sendMessage(@RequestBody MessageRequest request) {
@@ -23,4 +35,23 @@ public class MessageController {
     public Mono<Void> clearCache(@PathVariable java.util.UUID chatId) {
         return messageService.clearChatParticipantsCache(chatId).then();
     }
+
+    // Resource bodies are written zero-copy and honour Range requests. Only members
+    // of a chat the blob was sent to get it; anyone else sees a 404.
+    @GetMapping("/blobs/{blobRef}")
+    public Mono<ResponseEntity<Resource>> getBlob(
+            @PathVariable String blobRef,
+            @RequestParam java.util.UUID chatId,
+            @RequestHeader(USER_ID_HEADER) java.util.UUID userId) {
+        return messageService.isParticipant(chatId, userId)
+                .filter(Boolean::booleanValue)
+                .flatMap(member -> blobStore.load(blobRef, chatId))
+                .map(resource -> ResponseEntity.ok()
+                        .contentType(new MediaType(MediaType.TEXT_PLAIN, java.nio.charset.StandardCharsets.UTF_8))
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .eTag(blobRef)
+                        .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable())
+                        .body(resource))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
 }
@@ -15,4 +15,6 @@ public class KafkaMessage {
     private LocalDateTime messageTime;
     private UUID messageId;
     private UUID chatId;
+    private String blobRef;
+    private Long blobSize;
 }
@@ -1,5 +1,6 @@
 package com.neyma.messageService.entity;
 
+import org.springframework.data.cassandra.core.cql.Ordering;
 import org.springframework.data.cassandra.core.cql.PrimaryKeyType;
 import org.springframework.data.cassandra.core.mapping.Column;
 import org.springframework.data.cassandra.core.mapping.PrimaryKeyColumn;
@@ -13,21 +14,27 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 import java.util.UUID;
 
-@Table("messages")
+// Partitioned by (chat_id, time_bucket) so no chat grows a single unbounded partition
+@Table("messages_by_bucket")
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class Message {
 
-    @PrimaryKeyColumn(name = "chat_id", type = PrimaryKeyType.PARTITIONED)
+    @PrimaryKeyColumn(name = "chat_id", ordinal = 0, type = PrimaryKeyType.PARTITIONED)
     private UUID chatId;
 
-    @PrimaryKeyColumn(name = "message_time", ordinal = 0, type = PrimaryKeyType.CLUSTERED)
+    // See TimeBuckets
+    @PrimaryKeyColumn(name = "time_bucket", ordinal = 1, type = PrimaryKeyType.PARTITIONED)
+    private long timeBucket;
+
+    // Newest first within a bucket, which is how history is read
+    @PrimaryKeyColumn(name = "message_time", ordinal = 2, type = PrimaryKeyType.CLUSTERED, ordering = Ordering.DESCENDING)
     private LocalDateTime messageTime;
 
     @Builder.Default
-    @PrimaryKeyColumn(name = "message_id", ordinal = 1, type = PrimaryKeyType.CLUSTERED)
+    @PrimaryKeyColumn(name = "message_id", ordinal = 3, type = PrimaryKeyType.CLUSTERED, ordering = Ordering.DESCENDING)
     private UUID messageId = UUID.randomUUID();
 
     @Column("user_id")
@@ -39,6 +46,13 @@ public class Message {
     @Column("message_sent")
     private String messageSent;
 
+    // Set when the full content lives in the blob store; messageContent then holds a preview
+    @Column("blob_ref")
+    private String blobRef;
+
+    @Column("blob_size")
+    private Long blobSize;
+
     public Message(UUID chatId, UUID userId, String messageContent, String messageSent) {
         this.chatId = chatId;
         this.userId = userId;
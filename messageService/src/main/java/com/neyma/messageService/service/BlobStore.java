@@ -0,0 +1,119 @@
+package com.neyma.messageService.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Local content-addressed store for message bodies that are too large to be
+ * copied through Kafka, Redis and Cassandra. Blobs are keyed by their SHA-256,
+ * so the same payload sent twice is only written once. Since one blob can then
+ * belong to several chats, the chats it was sent to are kept in a Redis set
+ * (blob_chats:<ref>) and a blob is only handed out for one of them.
+ */
+@Component
+public class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    private static final Pattern BLOB_REF = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path root;
+    private final ReactiveStringRedisTemplate redisTemplate;
+
+    public BlobStore(
+            @Value("${message.blob.dir:/var/lib/message-blobs}") String blobDir,
+            ReactiveStringRedisTemplate redisTemplate) {
+        this.root = Paths.get(blobDir).toAbsolutePath().normalize();
+        this.redisTemplate = redisTemplate;
+    }
+
+    public Mono<String> store(byte[] content, UUID chatId) {
+        return Mono.fromCallable(() -> write(content))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(blobRef -> redisTemplate.opsForSet().add(chatsKey(blobRef), chatId.toString())
+                        .thenReturn(blobRef));
+    }
+
+    // Empty unless the blob exists and was sent to the given chat
+    public Mono<Resource> load(String blobRef, UUID chatId) {
+        if (!BLOB_REF.matcher(blobRef).matches()) {
+            return Mono.empty();
+        }
+        return redisTemplate.opsForSet().isMember(chatsKey(blobRef), chatId.toString())
+                .filter(Boolean::booleanValue)
+                .publishOn(Schedulers.boundedElastic())
+                .map(member -> resolve(blobRef))
+                .filter(Files::isRegularFile)
+                .map(FileSystemResource::new);
+    }
+
+    private String write(byte[] content) throws IOException {
+        String blobRef = HexFormat.of().formatHex(sha256(content));
+        Path target = resolve(blobRef);
+        if (Files.exists(target)) {
+            return blobRef;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), blobRef, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            // Publish atomically so readers never see a partially written blob
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // A concurrent writer stored the same content first
+            logger.debug("Blob {} already stored", blobRef);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return blobRef;
+    }
+
+    private static String chatsKey(String blobRef) {
+        return "blob_chats:" + blobRef;
+    }
+
+    // Two-level fan-out keeps directory sizes small: ab/cd/abcd...
+    private Path resolve(String blobRef) {
+        return root.resolve(blobRef.substring(0, 2))
+                .resolve(blobRef.substring(2, 4))
+                .resolve(blobRef);
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
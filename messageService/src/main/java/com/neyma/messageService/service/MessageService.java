@@ -9,13 +9,17 @@ import com.neyma.messageService.dto.MessageRequest;
 import com.neyma.messageService.entity.Message;
 import com.neyma.messageService.repository.MessageRepository;
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.UUID;
 
@@ -28,6 +32,14 @@ public class MessageService {
     private final ReactiveStringRedisTemplate redisTemplate;
     private final ObjectMapper objectMapper;
     private final KafkaTemplate<String, KafkaMessage> kafkaTemplate;
+    private final BlobStore blobStore;
+    private final TimeBuckets timeBuckets;
+
+    @Value("${message.blob.threshold-bytes:16384}")
+    private int blobThresholdBytes;
+
+    @Value("${message.blob.preview-length:280}")
+    private int previewLength;
 
     public Mono<Message> processAndSaveMessage(MessageRequest request) {
         return getChatParticipantsJson(request.getChatId())
@@ -61,7 +73,39 @@ public class MessageService {
                 request.getMessageContent(),
                 request.getMessageSent());
 
-        return saveMessage(message);
+        return offloadLargeContent(message)
+                .flatMap(this::saveMessage);
+    }
+
+    // Claim check: large bodies are written once to the blob store and only the
+    // reference plus a short preview travels through Cassandra, Kafka and Redis.
+    private Mono<Message> offloadLargeContent(Message message) {
+        String content = message.getMessageContent();
+        if (content == null || content.length() * 3L <= blobThresholdBytes) {
+            return Mono.just(message);
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= blobThresholdBytes) {
+            return Mono.just(message);
+        }
+        return blobStore.store(bytes, message.getChatId())
+                .map(blobRef -> {
+                    message.setBlobRef(blobRef);
+                    message.setBlobSize((long) bytes.length);
+                    message.setMessageContent(preview(content));
+                    return message;
+                });
+    }
+
+    private String preview(String content) {
+        if (content.length() <= previewLength) {
+            return content;
+        }
+        int end = previewLength;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
     }
 
     private Mono<Message> broadcastToKafka(String userIdsJson, Message savedMessage) {
@@ -85,8 +129,21 @@ public class MessageService {
                 .messageTime(savedMessage.getMessageTime())
                 .messageId(savedMessage.getMessageId())
                 .chatId(savedMessage.getChatId())
+                .blobRef(savedMessage.getBlobRef())
+                .blobSize(savedMessage.getBlobSize())
                 .build();
-        return Mono.fromFuture(kafkaTemplate.send("message", kafkaMessage)).then();
+        // Routing metadata travels in the key and headers so the dispatcher can forward
+        // the value bytes without deserializing them
+        ProducerRecord<String, KafkaMessage> record = new ProducerRecord<>("message", receiverId.toString(), kafkaMessage);
+        record.headers()
+                .add("receiver", receiverId.toString().getBytes(StandardCharsets.UTF_8))
+                .add("chatId", savedMessage.getChatId().toString().getBytes(StandardCharsets.UTF_8))
+                .add("sender", savedMessage.getUserId().toString().getBytes(StandardCharsets.UTF_8))
+                .add("messageId", savedMessage.getMessageId().toString().getBytes(StandardCharsets.UTF_8))
+                // Epoch millis in UTC, the zone message times are stored in
+                .add("messageTime", String.valueOf(savedMessage.getMessageTime().toInstant(ZoneOffset.UTC).toEpochMilli())
+                        .getBytes(StandardCharsets.UTF_8));
+        return Mono.fromFuture(kafkaTemplate.send(record)).then();
     }
 
     public Mono<Message> saveMessage(Message message) {
@@ -96,9 +153,23 @@ public class MessageService {
         if (message.getMessageTime() == null) {
             message.setMessageTime(LocalDateTime.now());
         }
+        message.setTimeBucket(timeBuckets.bucketOf(message.getMessageTime()));
         return messageRepository.save(message);
     }
 
+    public Mono<Boolean> isParticipant(UUID chatId, UUID userId) {
+        return getChatParticipantsJson(chatId)
+                .map(json -> {
+                    try {
+                        return objectMapper.readValue(json, new TypeReference<List<UUID>>() {
+                        }).contains(userId);
+                    } catch (JsonProcessingException e) {
+                        throw new IllegalStateException("Error deserializing user IDs", e);
+                    }
+                })
+                .defaultIfEmpty(false);
+    }
+
     public Mono<Boolean> clearChatParticipantsCache(UUID chatId) {
         return redisTemplate.delete(chatId.toString())
                 .map(count -> count > 0);
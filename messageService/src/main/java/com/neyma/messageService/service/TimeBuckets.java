@@ -0,0 +1,27 @@
+package com.neyma.messageService.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Maps message times to the time bucket that, together with the chat id, forms
+ * the Cassandra partition key, so a busy chat is spread over bounded partitions.
+ * Must use the same bucket size as chatHistoryService, which reads them back.
+ */
+@Component
+public class TimeBuckets {
+
+    private final long bucketSeconds;
+
+    public TimeBuckets(@Value("${message.bucket.size:7d}") Duration bucketSize) {
+        this.bucketSeconds = bucketSize.toSeconds();
+    }
+
+    public long bucketOf(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), bucketSeconds);
+    }
+}
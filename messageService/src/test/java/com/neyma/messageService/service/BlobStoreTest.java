@@ -0,0 +1,119 @@
+package com.neyma.messageService.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
+import org.springframework.data.redis.core.ReactiveSetOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BlobStoreTest {
+
+    @TempDir
+    Path root;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveSetOperations<String, String> setOperations;
+
+    private BlobStore blobStore;
+
+    private final UUID chatId = UUID.randomUUID();
+    private final byte[] content = "a rather long message".getBytes(StandardCharsets.UTF_8);
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        lenient().when(setOperations.add(anyString(), any(String[].class))).thenReturn(Mono.just(1L));
+        blobStore = new BlobStore(root.toString(), redisTemplate);
+    }
+
+    @Test
+    void store_WritesContentUnderItsSha256() throws Exception {
+        String blobRef = blobStore.store(content, chatId).block();
+
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)), blobRef);
+        Path blob = root.resolve(blobRef.substring(0, 2)).resolve(blobRef.substring(2, 4)).resolve(blobRef);
+        assertArrayEquals(content, Files.readAllBytes(blob));
+        // Written to a temp file and renamed into place; nothing is left behind
+        assertEquals(List.of(blob), files());
+        verify(setOperations).add("blob_chats:" + blobRef, chatId.toString());
+    }
+
+    @Test
+    void store_SameContentIsWrittenOnceButRecordedForEveryChat() throws Exception {
+        UUID otherChatId = UUID.randomUUID();
+
+        String first = blobStore.store(content, chatId).block();
+        Path blob = files().get(0);
+        long modified = Files.getLastModifiedTime(blob).toMillis();
+        String second = blobStore.store(content, otherChatId).block();
+
+        assertEquals(first, second);
+        assertEquals(List.of(blob), files());
+        assertEquals(modified, Files.getLastModifiedTime(blob).toMillis());
+        verify(setOperations).add("blob_chats:" + first, chatId.toString());
+        verify(setOperations).add("blob_chats:" + first, otherChatId.toString());
+    }
+
+    @Test
+    void load_ReturnsBlobForChatItWasSentTo() throws Exception {
+        String blobRef = blobStore.store(content, chatId).block();
+        when(setOperations.isMember("blob_chats:" + blobRef, chatId.toString())).thenReturn(Mono.just(true));
+
+        Resource resource = blobStore.load(blobRef, chatId).block();
+
+        assertNotNull(resource);
+        assertArrayEquals(content, resource.getContentAsByteArray());
+    }
+
+    @Test
+    void load_EmptyForChatTheBlobWasNotSentTo() {
+        String blobRef = blobStore.store(content, chatId).block();
+        UUID otherChatId = UUID.randomUUID();
+        when(setOperations.isMember("blob_chats:" + blobRef, otherChatId.toString())).thenReturn(Mono.just(false));
+
+        assertNull(blobStore.load(blobRef, otherChatId).block());
+    }
+
+    @Test
+    void load_EmptyForMissingBlob() {
+        String blobRef = "ab".repeat(32);
+        when(setOperations.isMember("blob_chats:" + blobRef, chatId.toString())).thenReturn(Mono.just(true));
+
+        assertNull(blobStore.load(blobRef, chatId).block());
+    }
+
+    @Test
+    void load_RejectsMalformedRefWithoutTouchingRedis() {
+        assertNull(blobStore.load("../../etc/passwd", chatId).block());
+        verify(redisTemplate, never()).opsForSet();
+    }
+
+    private List<Path> files() throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).toList();
+        }
+    }
+}
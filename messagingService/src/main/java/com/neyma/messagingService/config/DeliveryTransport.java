@@ -0,0 +1,15 @@
+package com.neyma.messagingService.config;
+
+/**
+ * How instance deliveries reach messagingService. PUBSUB is fire-and-forget;
+ * STREAM appends to a capped per-instance Redis stream read through a consumer
+ * group, so entries survive short consumer outages and are acknowledged only
+ * after they were written to the socket. SHARDED uses SPUBLISH/SSUBSCRIBE so on
+ * Redis Cluster each inbox channel lives on the shard owning its hash slot
+ * instead of being broadcast to every node.
+ */
+public enum DeliveryTransport {
+    PUBSUB,
+    STREAM,
+    SHARDED
+}
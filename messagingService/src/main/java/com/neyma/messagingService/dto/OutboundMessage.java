@@ -0,0 +1,17 @@
+package com.neyma.messagingService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class OutboundMessage {
+    private final String payload;
+    // Invoked once the frame has been written to the socket
+    private final Runnable onWritten;
+
+    public static OutboundMessage of(String payload) {
+        return new OutboundMessage(payload, () -> {
+        });
+    }
+}
@@ -1,39 +1,62 @@
 package com.neyma.messagingService.handler;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.neyma.messagingService.dto.MessageRequest;
+import com.neyma.messagingService.dto.OutboundMessage;
+import com.neyma.messagingService.service.AssignmentTicketVerifier;
+import com.neyma.messagingService.service.InboxChannels;
+import com.neyma.messagingService.service.LocalSessionRegistry;
+import com.neyma.messagingService.service.OfflineInbox;
+import com.neyma.messagingService.service.ReadReceipts;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.listener.ChannelTopic;
-import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.CloseStatus;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.SignalType;
 
+import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Component
 public class ChatWebSocketHandler implements WebSocketHandler {
 
-    private final ReactiveRedisMessageListenerContainer redisListenerContainer;
+    // Tells the client to drop its cached ticket and ask the registry again
+    static final CloseStatus TICKET_REJECTED = new CloseStatus(4001, "Assignment ticket rejected");
+
+    private final InboxChannels inboxChannels;
+    private final LocalSessionRegistry sessionRegistry;
+    private final OfflineInbox offlineInbox;
+    private final AssignmentTicketVerifier ticketVerifier;
+    private final ReadReceipts readReceipts;
     private final ObjectMapper objectMapper;
     private final WebClient webClient;
 
     private static final Logger logger = LoggerFactory.getLogger(ChatWebSocketHandler.class);
 
     public ChatWebSocketHandler(
-            ReactiveRedisMessageListenerContainer redisListenerContainer,
+            InboxChannels inboxChannels,
+            LocalSessionRegistry sessionRegistry,
+            OfflineInbox offlineInbox,
+            AssignmentTicketVerifier ticketVerifier,
+            ReadReceipts readReceipts,
             WebClient.Builder webClientBuilder,
             ObjectMapper objectMapper,
             @Value("${message.service.url:http://message-service:8080}") String messageServiceUrl) {
-        this.redisListenerContainer = redisListenerContainer;
+        this.inboxChannels = inboxChannels;
+        this.sessionRegistry = sessionRegistry;
+        this.offlineInbox = offlineInbox;
+        this.ticketVerifier = ticketVerifier;
+        this.readReceipts = readReceipts;
         this.objectMapper = objectMapper;
         this.webClient = webClientBuilder.baseUrl(messageServiceUrl).build();
     }
@@ -45,7 +68,15 @@ public class ChatWebSocketHandler implements WebSocketHandler {
             return session.close();
         }
 
-        logger.info("User {} connected", userId);
+        // Reconnects may come straight to this instance with the ticket the registry
+        // issued earlier; a ticket that doesn't check out sends the client back there
+        String ticket = extractTicket(session);
+        if (ticket != null && !ticketVerifier.verify(ticket, userId)) {
+            logger.info("User {} presented an invalid or expired assignment ticket", userId);
+            return session.close(TICKET_REJECTED);
+        }
+
+        logger.info("User {} connected{}", userId, ticket != null ? " with assignment ticket" : "");
 
         String channel = "inbox:user:" + userId;
 
@@ -60,7 +91,15 @@ public class ChatWebSocketHandler implements WebSocketHandler {
                 .map(WebSocketMessage::getPayloadAsText)
                 .flatMap(payload -> {
                     try {
-                        MessageRequest req = objectMapper.readValue(payload, MessageRequest.class);
+                        JsonNode frame = objectMapper.readTree(payload);
+                        // Read receipts are coalesced locally and never reach MessageService
+                        if ("read".equals(frame.path("type").asText())) {
+                            readReceipts.submit(userId, UUID.fromString(frame.path("chatId").asText()),
+                                    frame.path("messageId").asText(),
+                                    LocalDateTime.parse(frame.path("messageTime").asText()));
+                            return Mono.empty();
+                        }
+                        MessageRequest req = objectMapper.treeToValue(frame, MessageRequest.class);
                         // Security override (optional but recommended)
                         req.setUserId(userId);
 
@@ -90,16 +129,47 @@ public class ChatWebSocketHandler implements WebSocketHandler {
                 .then();
 
         // Output: Redis -> WebSocket
+        // Most deliveries arrive through the instance inbox and are handed over by the
+        // session registry; the personal channel only carries re-routed fallbacks.
         // We use takeUntilOther(completionSignal.asMono()) so we don't double-subscribe
         // to 'session.receive()'
-        Mono<Void> output = session.send(
-                redisListenerContainer.receive(ChannelTopic.of(channel))
-                        .map(p -> session.textMessage(p.getMessage()))
-                        .takeUntilOther(completionSignal.asMono()));
+        Flux<OutboundMessage> local = sessionRegistry.register(userId);
+        Flux<OutboundMessage> fallback = inboxChannels.receive(channel)
+                .map(OutboundMessage::of);
+        // Replay everything that arrived while the user was offline in one read. The
+        // live sources are subscribed alongside it so nothing falls between the two.
+        Flux<OutboundMessage> missed = offlineInbox.drain(userId)
+                .map(OutboundMessage::of)
+                .onErrorResume(e -> {
+                    logger.error("Failed to drain offline inbox for {}: {}", userId, e.getMessage());
+                    return Flux.empty();
+                });
+        // Frames are sent one at a time so onWritten (stream acknowledgement) only runs
+        // after the frame actually reached the socket.
+        Mono<Void> output = Flux.merge(missed, local, fallback)
+                .takeUntilOther(completionSignal.asMono())
+                .concatMap(message -> session.send(Mono.just(session.textMessage(message.getPayload())))
+                        .doOnSuccess(v -> message.getOnWritten().run()))
+                .then();
 
         return Mono.zip(input, output).then();
     }
 
+    // The ticket travels as an extra subprotocol token; unlike a UUID it contains a '.'
+    private String extractTicket(WebSocketSession session) {
+        java.util.List<String> protocols = session.getHandshakeInfo().getHeaders().get("Sec-WebSocket-Protocol");
+        if (protocols == null || protocols.isEmpty()) {
+            return null;
+        }
+        for (String token : protocols.get(0).split(",")) {
+            String trimmed = token.trim();
+            if (trimmed.indexOf('.') > 0) {
+                return trimmed;
+            }
+        }
+        return null;
+    }
+
     private UUID extractUserId(WebSocketSession session) {
         try {
             // Check Sec-WebSocket-Protocol header
@@ -0,0 +1,83 @@
+package com.neyma.messagingService.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Verifies the HMAC-signed assignment tickets issued by serviceRegistryService
+ * ("userId:serviceId:expiresAtMillis"), so a client reconnecting after a network
+ * blip can skip the registry. A ticket is accepted only for this instance, before
+ * it expires and while this instance's heartbeat is current.
+ */
+@Service
+public class AssignmentTicketVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(AssignmentTicketVerifier.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    // HMAC-SHA256 keys shorter than the hash output weaken the signature
+    private static final int MIN_SECRET_BYTES = 32;
+
+    private final SecretKeySpec key;
+    private final UUID instanceId;
+    private final InstanceHealthReporter healthReporter;
+
+    public AssignmentTicketVerifier(
+            @Value("${assignment.ticket.secret}") String secret,
+            UUID instanceId,
+            InstanceHealthReporter healthReporter) {
+        byte[] secretBytes = secret == null ? new byte[0] : secret.getBytes(StandardCharsets.UTF_8);
+        if (secretBytes.length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("assignment.ticket.secret (ASSIGNMENT_TICKET_SECRET) must be set to at least "
+                    + MIN_SECRET_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(secretBytes, ALGORITHM);
+        this.instanceId = instanceId;
+        this.healthReporter = healthReporter;
+    }
+
+    public boolean verify(String ticket, UUID userId) {
+        try {
+            int separator = ticket.indexOf('.');
+            if (separator < 0) {
+                return false;
+            }
+            byte[] claims = Base64.getUrlDecoder().decode(ticket.substring(0, separator));
+            byte[] signature = Base64.getUrlDecoder().decode(ticket.substring(separator + 1));
+            // Constant-time comparison so the signature can't be guessed byte by byte
+            if (!MessageDigest.isEqual(sign(claims), signature)) {
+                logger.warn("Rejected assignment ticket with a bad signature for user {}", userId);
+                return false;
+            }
+
+            String[] parts = new String(claims, StandardCharsets.UTF_8).split(":");
+            return parts.length == 3
+                    && UUID.fromString(parts[0]).equals(userId)
+                    && UUID.fromString(parts[1]).equals(instanceId)
+                    && Long.parseLong(parts[2]) > System.currentTimeMillis()
+                    && healthReporter.isAlive();
+        } catch (IllegalArgumentException e) {
+            // Malformed Base64, UUID or expiry
+            return false;
+        }
+    }
+
+    private byte[] sign(byte[] claims) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(claims);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to verify assignment ticket", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.neyma.messagingService.service;
+
+import com.neyma.messagingService.config.DeliveryTransport;
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subscribes to and publishes on inbox channels using the configured delivery
+ * transport. With SHARDED the channels are served by SSUBSCRIBE/SPUBLISH, so on
+ * Redis Cluster a channel's traffic stays on the shard owning its slot instead of
+ * being broadcast over the cluster bus; every other transport uses classic pub/sub.
+ */
+@Service
+public class InboxChannels implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxChannels.class);
+
+    // The channel is passed as a key so cluster clients route the call to the owning shard
+    private static final RedisScript<Long> SHARDED_PUBLISH = RedisScript.of(
+            "return redis.call('SPUBLISH', KEYS[1], ARGV[1])", Long.class);
+
+    private final ReactiveRedisMessageListenerContainer redisListenerContainer;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final LettuceConnectionFactory connectionFactory;
+    private final boolean sharded;
+    private final Map<String, Sinks.Many<String>> subscriptions = new ConcurrentHashMap<>();
+    private volatile StatefulRedisPubSubConnection<String, String> connection;
+
+    public InboxChannels(
+            ReactiveRedisMessageListenerContainer redisListenerContainer,
+            ReactiveStringRedisTemplate redisTemplate,
+            LettuceConnectionFactory connectionFactory,
+            @Value("${delivery.transport:pubsub}") DeliveryTransport transport) {
+        this.redisListenerContainer = redisListenerContainer;
+        this.redisTemplate = redisTemplate;
+        this.connectionFactory = connectionFactory;
+        this.sharded = transport == DeliveryTransport.SHARDED;
+    }
+
+    public Flux<String> receive(String channel) {
+        if (!sharded) {
+            return redisListenerContainer.receive(ChannelTopic.of(channel))
+                    .map(ReactiveSubscription.Message::getMessage);
+        }
+        return Flux.defer(() -> subscriptions.computeIfAbsent(channel, this::shardedSubscribe).asFlux())
+                .doFinally(signal -> unsubscribeIfIdle(channel));
+    }
+
+    public Mono<Long> publish(String channel, String payload) {
+        if (!sharded) {
+            return redisTemplate.convertAndSend(channel, payload);
+        }
+        return redisTemplate.execute(SHARDED_PUBLISH, List.of(channel), List.of(payload)).next();
+    }
+
+    private Sinks.Many<String> shardedSubscribe(String channel) {
+        // Not auto-cancelled: the sink is dropped explicitly once its last subscriber leaves
+        Sinks.Many<String> sink = Sinks.many().multicast().onBackpressureBuffer(256, false);
+        connectionFor(channel).reactive().ssubscribe(channel)
+                .subscribe(null, error -> logger.error("SSUBSCRIBE {} failed: {}", channel, error.getMessage()));
+        return sink;
+    }
+
+    private void unsubscribeIfIdle(String channel) {
+        subscriptions.computeIfPresent(channel, (key, sink) -> {
+            if (sink.currentSubscriberCount() > 0) {
+                return sink;
+            }
+            connectionFor(channel).reactive().sunsubscribe(channel)
+                    .subscribe(null, error -> logger.warn("SUNSUBSCRIBE {} failed: {}", channel, error.getMessage()));
+            return null;
+        });
+    }
+
+    // On a cluster SSUBSCRIBE has to be issued on the node that owns the channel's slot
+    private StatefulRedisPubSubConnection<String, String> connectionFor(String channel) {
+        StatefulRedisPubSubConnection<String, String> pubSub = connect();
+        if (pubSub instanceof StatefulRedisClusterPubSubConnection<String, String> cluster) {
+            RedisClusterNode node = cluster.getPartitions().getPartitionBySlot(SlotHash.getSlot(channel));
+            return cluster.getConnection(node.getNodeId());
+        }
+        return pubSub;
+    }
+
+    private StatefulRedisPubSubConnection<String, String> connect() {
+        StatefulRedisPubSubConnection<String, String> current = connection;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (connection == null) {
+                AbstractRedisClient client = connectionFactory.getNativeClient();
+                StatefulRedisPubSubConnection<String, String> pubSub;
+                if (client instanceof RedisClusterClient clusterClient) {
+                    StatefulRedisClusterPubSubConnection<String, String> cluster = clusterClient.connectPubSub();
+                    // Forward messages received on the per-node connections to our listener
+                    cluster.setNodeMessagePropagation(true);
+                    pubSub = cluster;
+                } else {
+                    pubSub = ((RedisClient) client).connectPubSub();
+                }
+                // Shard messages are delivered through smessage, which defaults to message()
+                pubSub.addListener(new RedisPubSubAdapter<>() {
+                    @Override
+                    public void message(String channel, String message) {
+                        Sinks.Many<String> sink = subscriptions.get(channel);
+                        if (sink != null) {
+                            sink.emitNext(message, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+                        }
+                    }
+                });
+                connection = pubSub;
+            }
+            return connection;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+}
@@ -4,8 +4,11 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -13,23 +16,53 @@ public class InstanceHealthReporter {
 
     private final ReactiveStringRedisTemplate redisTemplate;
     private final java.util.UUID instanceId;
+    private final LocalSessionRegistry sessionRegistry;
 
     private static final long HEARTBEAT_TTL_SECONDS = 5; // Short TTL for fast failure detection
 
+    private volatile long lastHeartbeatWritten;
+
     @Scheduled(fixedRate = 1000) // Run every 1 second
     public void reportHealth() {
         long timestamp = System.currentTimeMillis();
         String key = "service:alive:" + instanceId;
+        String loadKey = "service:load:" + instanceId;
 
         org.slf4j.LoggerFactory.getLogger(InstanceHealthReporter.class)
                 .debug("Sending heartbeat for instance {}:Timestamp={}", instanceId, timestamp);
 
-        redisTemplate.opsForValue()
-                .set(key, String.valueOf(timestamp), Duration.ofSeconds(HEARTBEAT_TTL_SECONDS))
+        // Load travels with the heartbeat so the registry can prefer lightly loaded instances
+        Map<String, String> load = Map.of(
+                "sessions", String.valueOf(sessionRegistry.sessionCount()),
+                "queue_bytes", String.valueOf(sessionRegistry.queuedBytes()),
+                "cpu", String.valueOf(processCpuLoad()));
+
+        Mono.when(
+                redisTemplate.opsForValue()
+                        .set(key, String.valueOf(timestamp), Duration.ofSeconds(HEARTBEAT_TTL_SECONDS)),
+                redisTemplate.opsForHash().putAll(loadKey, load)
+                        .then(redisTemplate.expire(loadKey, Duration.ofSeconds(HEARTBEAT_TTL_SECONDS))))
                 .subscribe(
                         success -> {
                         },
                         error -> org.slf4j.LoggerFactory.getLogger(InstanceHealthReporter.class)
-                                .error("Failed to send heartbeat", error));
+                                .error("Failed to send heartbeat", error),
+                        () -> lastHeartbeatWritten = timestamp);
+    }
+
+    /**
+     * Whether the registry still sees this instance: its last heartbeat was written
+     * recently enough not to have expired yet.
+     */
+    public boolean isAlive() {
+        return System.currentTimeMillis() - lastHeartbeatWritten < Duration.ofSeconds(HEARTBEAT_TTL_SECONDS).toMillis();
+    }
+
+    // Recent CPU usage of this JVM between 0 and 1, or 0 when the platform can't tell
+    private static double processCpuLoad() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return Math.max(0, os.getProcessCpuLoad());
+        }
+        return 0;
     }
 }
@@ -0,0 +1,122 @@
+package com.neyma.messagingService.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consumes the per-instance inbox the dispatcher delivers to, either as a
+ * (sharded) pub/sub channel or as a Redis stream (see delivery.transport). Each entry is a JSON
+ * array of messages for users assigned to this instance; messages for users that
+ * are not (or no longer) connected here are re-routed to their personal inbox
+ * channel in case they moved to another instance.
+ */
+@Service
+@RequiredArgsConstructor
+public class InstanceInboxListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstanceInboxListener.class);
+
+    private final InboxChannels inboxChannels;
+    private final LocalSessionRegistry sessionRegistry;
+    private final OfflineInbox offlineInbox;
+    private final StreamInbox streamInbox;
+    private final ObjectMapper objectMapper;
+    private final UUID instanceId;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribe() {
+        Flux<Void> deliveries;
+        if (streamInbox.isEnabled()) {
+            logger.info("Reading instance deliveries from stream inbox:stream:{}", instanceId);
+            deliveries = streamInbox.receive()
+                    .concatMap(record -> dispatch(record.getValue().get("payload"),
+                            () -> streamInbox.acknowledge(record.getId()).subscribe()));
+        } else {
+            String channel = "inbox:instance:" + instanceId;
+            logger.info("Listening for instance deliveries on {}", channel);
+            deliveries = inboxChannels.receive(channel)
+                    .concatMap(message -> dispatch(message, () -> {
+                    }));
+        }
+
+        // A dropped connection or a stream that expired together with its group ends the
+        // subscription; subscribe again (re-creating the group) until it holds.
+        deliveries
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> logger.warn("Instance inbox subscription failed, resubscribing: {}",
+                                signal.failure().getMessage())))
+                .subscribe(
+                        v -> {
+                        },
+                        error -> logger.error("Instance inbox subscription failed", error));
+    }
+
+    // onDelivered runs once every message in the batch was written to a socket or re-routed
+    private Mono<Void> dispatch(String batch, Runnable onDelivered) {
+        JsonNode messages;
+        try {
+            messages = objectMapper.readTree(batch);
+        } catch (Exception e) {
+            logger.error("Invalid instance inbox payload: {}", e.getMessage());
+            onDelivered.run();
+            return Mono.empty();
+        }
+
+        if (messages.isEmpty()) {
+            onDelivered.run();
+            return Mono.empty();
+        }
+
+        AtomicInteger remaining = new AtomicInteger(messages.size());
+        Runnable countDown = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                onDelivered.run();
+            }
+        };
+
+        return Flux.fromIterable(messages)
+                .flatMap(message -> deliver(message, countDown))
+                .onErrorResume(e -> {
+                    logger.error("Failed to dispatch instance inbox batch: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Void> deliver(JsonNode message, Runnable onDelivered) {
+        String receiver = message.path("receiver").asText(null);
+        if (receiver == null) {
+            onDelivered.run();
+            return Mono.empty();
+        }
+        String payload = message.toString();
+        if (sessionRegistry.deliver(UUID.fromString(receiver), payload, onDelivered)) {
+            return Mono.empty();
+        }
+        // Stale assignment on the dispatcher side: fall back to the user's own channel,
+        // and keep the message for the next connect if nobody is listening there either
+        return inboxChannels.publish("inbox:user:" + receiver, payload)
+                .flatMap(count -> count > 0 ? Mono.<Void>empty() : offlineInbox.append(receiver, payload))
+                .doOnSuccess(v -> onDelivered.run())
+                .onErrorResume(e -> {
+                    logger.error("Failed to re-route message for {}: {}", receiver, e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+}
@@ -0,0 +1,88 @@
+package com.neyma.messagingService.service;
+
+import com.neyma.messagingService.dto.OutboundMessage;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the WebSocket sessions connected to this instance so messages routed to
+ * the instance inbox can be handed to the right sockets without a Redis
+ * subscription per user.
+ */
+@Component
+public class LocalSessionRegistry {
+
+    private static final Sinks.EmitFailureHandler RETRY_ON_CONTENTION = Sinks.EmitFailureHandler
+            .busyLooping(Duration.ofMillis(100));
+
+    private final Map<UUID, Set<Sinks.Many<OutboundMessage>>> sessions = new ConcurrentHashMap<>();
+    // Payload characters handed to sessions but not yet written to their sockets
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    public Flux<OutboundMessage> register(UUID userId) {
+        Sinks.Many<OutboundMessage> sink = Sinks.many().unicast().onBackpressureBuffer();
+        sessions.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(sink);
+        return sink.asFlux()
+                .doOnDiscard(OutboundMessage.class, message -> queuedBytes.addAndGet(-message.getPayload().length()))
+                .doFinally(signal -> unregister(userId, sink));
+    }
+
+    public boolean deliver(UUID userId, String payload) {
+        return deliver(userId, payload, () -> {
+        });
+    }
+
+    /**
+     * Pushes a payload to every local session of the user. onWritten runs once all
+     * of those sessions have written it to their socket.
+     *
+     * @return false if the user has no session on this instance
+     */
+    public boolean deliver(UUID userId, String payload, Runnable onWritten) {
+        Set<Sinks.Many<OutboundMessage>> registered = sessions.get(userId);
+        List<Sinks.Many<OutboundMessage>> userSessions = registered == null ? List.of() : List.copyOf(registered);
+        if (userSessions.isEmpty()) {
+            return false;
+        }
+        AtomicInteger remaining = new AtomicInteger(userSessions.size());
+        Runnable countDown = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                onWritten.run();
+            }
+        };
+        long size = payload.length();
+        userSessions.forEach(sink -> {
+            queuedBytes.addAndGet(size);
+            sink.emitNext(new OutboundMessage(payload, () -> {
+                queuedBytes.addAndGet(-size);
+                countDown.run();
+            }), RETRY_ON_CONTENTION);
+        });
+        return true;
+    }
+
+    public int sessionCount() {
+        return sessions.values().stream().mapToInt(Set::size).sum();
+    }
+
+    public long queuedBytes() {
+        return Math.max(0, queuedBytes.get());
+    }
+
+    private void unregister(UUID userId, Sinks.Many<OutboundMessage> sink) {
+        sessions.computeIfPresent(userId, (id, userSessions) -> {
+            userSessions.remove(sink);
+            return userSessions.isEmpty() ? null : userSessions;
+        });
+    }
+}
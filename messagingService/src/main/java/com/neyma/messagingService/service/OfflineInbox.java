@@ -0,0 +1,65 @@
+package com.neyma.messagingService.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Per-user list of messages that could not be delivered live (see the dispatcher's
+ * OfflineInbox). Drained in one round trip when the user connects.
+ */
+@Service
+public class OfflineInbox {
+
+    // KEYS[1] = offline list, ARGV[1] = max size, ARGV[2] = ttl millis, ARGV[3] = message
+    private static final RedisScript<Long> APPEND = RedisScript.of("""
+            local size = redis.call('RPUSH', KEYS[1], ARGV[3])
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return size
+            """, Long.class);
+
+    // Read and clear atomically so messages appended concurrently are never lost
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> DRAIN = RedisScript.of("""
+            local messages = redis.call('LRANGE', KEYS[1], 0, -1)
+            redis.call('DEL', KEYS[1])
+            return messages
+            """, List.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final int maxSize;
+    private final Duration ttl;
+
+    public OfflineInbox(
+            ReactiveStringRedisTemplate redisTemplate,
+            @Value("${offline-inbox.max-size:500}") int maxSize,
+            @Value("${offline-inbox.ttl:7d}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    public Mono<Void> append(String userId, String payload) {
+        return redisTemplate.execute(APPEND, List.of(key(userId)),
+                        List.of(String.valueOf(maxSize), String.valueOf(ttl.toMillis()), payload))
+                .then();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Flux<String> drain(UUID userId) {
+        return redisTemplate.execute(DRAIN, List.of(key(userId.toString())), List.of())
+                .flatMapIterable(messages -> (List<String>) messages);
+    }
+
+    private static String key(String userId) {
+        return "offline:user:" + userId;
+    }
+}
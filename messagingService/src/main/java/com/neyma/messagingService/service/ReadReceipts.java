@@ -0,0 +1,178 @@
+package com.neyma.messagingService.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read receipts sent by clients over the WebSocket. Receipts are coalesced per
+ * (user, chat) and flushed periodically, so a user scrolling through a few hundred
+ * messages results in one unread counter update, one read marker write and one
+ * notification to the other participants instead of one per message. Only the
+ * messages up to the one read stop counting as unread, and receipts from users
+ * who are not in the chat are dropped.
+ */
+@Service
+public class ReadReceipts {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadReceipts.class);
+
+    // KEYS as in the dispatcher's UnreadCounters: counts hash, unread set, read watermarks.
+    // ARGV[1] = chatId, ARGV[2] = time of the message read, epoch millis.
+    private static final RedisScript<Long> READ_UP_TO = RedisScript.of("""
+            local readAt = tonumber(redis.call('HGET', KEYS[3], ARGV[1]) or '-1')
+            if tonumber(ARGV[2]) > readAt then
+                redis.call('HSET', KEYS[3], ARGV[1], ARGV[2])
+            end
+            redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', ARGV[2])
+            local count = redis.call('ZCARD', KEYS[2])
+            if count == 0 then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+            else
+                redis.call('HSET', KEYS[1], ARGV[1], count)
+            end
+            return count
+            """, Long.class);
+
+    private record Key(UUID userId, UUID chatId) {
+    }
+
+    private record Receipt(String messageId, long messageTime) {
+    }
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final InboxChannels inboxChannels;
+    private final ObjectMapper objectMapper;
+    private final WebClient chatHistoryClient;
+    private final Duration flushTimeout;
+    // Latest message read per (user, chat) since the last flush
+    private final Map<Key, Receipt> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    public ReadReceipts(
+            ReactiveStringRedisTemplate redisTemplate,
+            InboxChannels inboxChannels,
+            ObjectMapper objectMapper,
+            WebClient.Builder webClientBuilder,
+            @Value("${chat-history.url:http://chat-history-service:8080}") String chatHistoryUrl,
+            @Value("${receipts.flush-timeout:5s}") Duration flushTimeout) {
+        this.redisTemplate = redisTemplate;
+        this.inboxChannels = inboxChannels;
+        this.objectMapper = objectMapper;
+        this.chatHistoryClient = webClientBuilder.baseUrl(chatHistoryUrl).build();
+        this.flushTimeout = flushTimeout;
+    }
+
+    // Message times are UTC, as everywhere in the message pipeline
+    public void submit(UUID userId, UUID chatId, String messageId, LocalDateTime messageTime) {
+        Receipt receipt = new Receipt(messageId, messageTime.toInstant(ZoneOffset.UTC).toEpochMilli());
+        pending.merge(new Key(userId, chatId), receipt,
+                (current, next) -> next.messageTime() >= current.messageTime() ? next : current);
+    }
+
+    @Scheduled(fixedDelayString = "${receipts.flush-interval:PT1S}")
+    public void flush() {
+        // The scheduler thread also sends the instance heartbeat, so the flush never
+        // blocks it; a round that is still running makes this one wait for the next tick
+        if (pending.isEmpty() || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+        List<Map.Entry<Key, Receipt>> batch = new ArrayList<>(pending.size());
+        for (Map.Entry<Key, Receipt> entry : pending.entrySet()) {
+            // Only drop what we flush; a newer receipt that raced in stays for the next round
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                batch.add(entry);
+            }
+        }
+        Flux.fromIterable(batch)
+                .flatMap(entry -> apply(entry.getKey(), entry.getValue())
+                        .onErrorResume(e -> {
+                            logger.warn("Failed to apply read receipt of {} in {}: {}",
+                                    entry.getKey().userId(), entry.getKey().chatId(), e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then()
+                .timeout(flushTimeout)
+                .doFinally(signal -> flushing.set(false))
+                .subscribe(
+                        v -> {
+                        },
+                        e -> logger.warn("Read receipt flush did not complete: {}", e.getMessage()));
+    }
+
+    private Mono<Void> apply(Key key, Receipt receipt) {
+        String userId = key.userId().toString();
+        String chatId = key.chatId().toString();
+        return participants(key.chatId()).collectList().flatMap(participants -> {
+            if (!participants.contains(userId)) {
+                logger.warn("Dropping read receipt of {} for chat {} they are not in", userId, chatId);
+                return Mono.empty();
+            }
+            Mono<Long> readUpTo = redisTemplate.execute(READ_UP_TO, unreadKeys(userId, chatId),
+                    List.of(chatId, String.valueOf(receipt.messageTime()))).next();
+            Mono<Boolean> marker = redisTemplate.opsForHash().put(readKey(chatId), userId, receipt.messageId());
+            String event = objectMapper.createObjectNode()
+                    .put("type", "read")
+                    .put("chatId", chatId)
+                    .put("userId", userId)
+                    .put("messageId", receipt.messageId())
+                    .toString();
+            Flux<Long> notify = Flux.fromIterable(participants)
+                    .filter(participant -> !participant.equals(userId))
+                    .flatMap(participant -> inboxChannels.publish("inbox:user:" + participant, event));
+            return Mono.when(readUpTo, marker, notify);
+        });
+    }
+
+    // messageService keeps the participant list cached under the chat id
+    private Flux<String> participants(UUID chatId) {
+        Mono<String> json = redisTemplate.opsForValue().get(chatId.toString());
+        return json.<List<String>>handle((value, sink) -> {
+                    try {
+                        sink.next(objectMapper.readValue(value,
+                                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class)));
+                    } catch (Exception e) {
+                        sink.error(e);
+                    }
+                })
+                .switchIfEmpty(chatHistoryClient.get()
+                        .uri("/history/chat/{chatId}/participants", chatId)
+                        .retrieve()
+                        .bodyToMono(JsonNode.class)
+                        .map(body -> {
+                            List<String> ids = new ArrayList<>();
+                            body.path("userIds").forEach(id -> ids.add(id.asText()));
+                            return ids;
+                        }))
+                .flatMapIterable(ids -> ids);
+    }
+
+    // Same hash tag for all of a user's keys, so the script also runs on Redis Cluster
+    static List<String> unreadKeys(String userId, String chatId) {
+        return List.of("unread:{" + userId + "}", "unread_messages:{" + userId + "}:" + chatId,
+                "read_at:{" + userId + "}");
+    }
+
+    static String readKey(String chatId) {
+        return "chat_read:" + chatId;
+    }
+}
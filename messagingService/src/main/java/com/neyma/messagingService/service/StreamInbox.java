@@ -0,0 +1,159 @@
+package com.neyma.messagingService.service;
+
+import com.neyma.messagingService.config.DeliveryTransport;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.stream.StreamReceiver;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumer side of the STREAM delivery transport: reads this instance's stream
+ * through a consumer group, acknowledges entries once they were written to the
+ * sockets and periodically re-claims entries that were never acknowledged.
+ */
+@Service
+public class StreamInbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamInbox.class);
+
+    private static final String GROUP = "messaging";
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final StreamReceiver<String, MapRecord<String, String, String>> receiver;
+    private final boolean enabled;
+    private final Duration reclaimAfter;
+    private final String streamKey;
+    private final Consumer consumer;
+    // Multicast without auto-cancel, so a resubscribing receive() picks it up again
+    private final Sinks.Many<MapRecord<String, String, String>> reclaimed = Sinks.many().multicast()
+            .onBackpressureBuffer(Queues.SMALL_BUFFER_SIZE, false);
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong length = new AtomicLong();
+
+    @Autowired
+    public StreamInbox(
+            ReactiveStringRedisTemplate redisTemplate,
+            ReactiveRedisConnectionFactory connectionFactory,
+            MeterRegistry meterRegistry,
+            UUID instanceId,
+            @Value("${delivery.transport:pubsub}") DeliveryTransport transport,
+            @Value("${delivery.stream.batch-size:100}") int batchSize,
+            @Value("${delivery.stream.reclaim-after:PT30S}") Duration reclaimAfter) {
+        this(redisTemplate,
+                StreamReceiver.create(connectionFactory, StreamReceiver.StreamReceiverOptions.builder()
+                        .pollTimeout(Duration.ofSeconds(1))
+                        .batchSize(batchSize)
+                        .build()),
+                meterRegistry, instanceId, transport, reclaimAfter);
+    }
+
+    StreamInbox(
+            ReactiveStringRedisTemplate redisTemplate,
+            StreamReceiver<String, MapRecord<String, String, String>> receiver,
+            MeterRegistry meterRegistry,
+            UUID instanceId,
+            DeliveryTransport transport,
+            Duration reclaimAfter) {
+        this.redisTemplate = redisTemplate;
+        this.receiver = receiver;
+        this.enabled = transport == DeliveryTransport.STREAM;
+        this.reclaimAfter = reclaimAfter;
+        this.streamKey = "inbox:stream:" + instanceId;
+        this.consumer = Consumer.from(GROUP, instanceId.toString());
+
+        Gauge.builder("messaging.stream.pending", pending, AtomicLong::get)
+                .description("Entries delivered to this instance but not yet acknowledged")
+                .register(meterRegistry);
+        Gauge.builder("messaging.stream.length", length, AtomicLong::get)
+                .description("Entries currently retained in this instance's inbox stream")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the consumer group on every subscription, so resubscribing after an
+     * error also recovers a stream that expired and took its group with it.
+     */
+    public Flux<MapRecord<String, String, String>> receive() {
+        return Flux.defer(() -> createGroup()
+                .thenMany(Flux.merge(
+                        receiver.receive(consumer, StreamOffset.create(streamKey, ReadOffset.lastConsumed())),
+                        reclaimed.asFlux())));
+    }
+
+    public Mono<Void> acknowledge(RecordId recordId) {
+        return redisTemplate.opsForStream().acknowledge(streamKey, GROUP, recordId).then();
+    }
+
+    // Entries handed to a session that closed before writing them stay pending; hand
+    // them to the dispatch loop again so they are re-routed or stored offline.
+    @Scheduled(fixedDelayString = "${delivery.stream.reclaim-after:PT30S}")
+    public void reclaimStale() {
+        if (!enabled) {
+            return;
+        }
+        redisTemplate.opsForStream().pending(streamKey, consumer, Range.unbounded(), 100)
+                .flatMapMany(pendingMessages -> Flux.fromIterable(pendingMessages)
+                        .filter(message -> message.getElapsedTimeSinceLastDelivery().compareTo(reclaimAfter) >= 0)
+                        .map(PendingMessage::getId))
+                .collectList()
+                .filter(ids -> !ids.isEmpty())
+                .flatMapMany(ids -> redisTemplate.opsForStream().claim(streamKey, GROUP, consumer.getName(),
+                        reclaimAfter, ids.toArray(RecordId[]::new)))
+                .subscribe(
+                        record -> reclaimed.tryEmitNext(record),
+                        error -> logger.error("Failed to reclaim pending stream entries", error));
+    }
+
+    @Scheduled(fixedRate = 5000)
+    public void refreshLag() {
+        if (!enabled) {
+            return;
+        }
+        redisTemplate.opsForStream().pending(streamKey, GROUP)
+                .subscribe(summary -> pending.set(summary.getTotalPendingMessages()),
+                        error -> logger.debug("Could not read pending summary: {}", error.getMessage()));
+        redisTemplate.opsForStream().size(streamKey)
+                .subscribe(length::set,
+                        error -> logger.debug("Could not read stream length: {}", error.getMessage()));
+    }
+
+    private Mono<Void> createGroup() {
+        ByteBuffer key = ByteBuffer.wrap(streamKey.getBytes(StandardCharsets.UTF_8));
+        return redisTemplate.execute(connection -> connection.streamCommands()
+                        .xGroupCreate(key, GROUP, ReadOffset.from("0"), true))
+                .onErrorResume(e -> {
+                    // BUSYGROUP: the group already exists
+                    logger.debug("Consumer group {} not created: {}", GROUP, e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+}
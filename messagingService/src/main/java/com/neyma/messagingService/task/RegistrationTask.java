@@ -25,11 +25,17 @@ public class RegistrationTask {
         @Value("${messaging.client.url:ws://localhost:8085/ws}")
         private String clientUrl;
 
+        // Lets the gateway proxy WebSocket upgrades straight to this instance
+        @Value("${messaging.internal.url:}")
+        private String internalUrl;
+
         @EventListener(ApplicationReadyEvent.class)
         public void registerOnStartup() {
                 URI uri = org.springframework.web.util.UriComponentsBuilder.fromHttpUrl(serviceRegistryUrl)
                                 .path("/registry/service/" + instanceId)
                                 .queryParam("address", clientUrl)
+                                .queryParamIfPresent("internalAddress",
+                                                java.util.Optional.ofNullable(internalUrl).filter(url -> !url.isBlank()))
                                 .build()
                                 .toUri();
 
@@ -3,7 +3,7 @@ package com.neyma.messagingService;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "assignment.ticket.secret=test-secret-of-at-least-32-bytes")
 class MessagingServiceApplicationTests {
 
 	@Test
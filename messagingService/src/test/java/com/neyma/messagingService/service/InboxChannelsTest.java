@@ -0,0 +1,141 @@
+package com.neyma.messagingService.service;
+
+import com.neyma.messagingService.config.DeliveryTransport;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.pubsub.RedisPubSubListener;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.lettuce.core.pubsub.api.reactive.RedisPubSubReactiveCommands;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboxChannelsTest {
+
+    private static final String CHANNEL = "inbox:user:bob";
+
+    @Mock
+    private ReactiveRedisMessageListenerContainer redisListenerContainer;
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private LettuceConnectionFactory connectionFactory;
+
+    @Mock
+    private RedisClient redisClient;
+
+    @Mock
+    private StatefulRedisPubSubConnection<String, String> pubSubConnection;
+
+    @Mock
+    private RedisPubSubReactiveCommands<String, String> pubSubCommands;
+
+    @Captor
+    private ArgumentCaptor<RedisPubSubListener<String, String>> listener;
+
+    @Captor
+    private ArgumentCaptor<ChannelTopic> topic;
+
+    @Test
+    void receive_PubSubSubscribesThroughListenerContainer() {
+        when(redisListenerContainer.receive(any(ChannelTopic.class)))
+                .thenReturn(Flux.just(new ReactiveSubscription.ChannelMessage<>(CHANNEL, "hi")));
+
+        StepVerifier.create(channels(DeliveryTransport.PUBSUB).receive(CHANNEL))
+                .expectNext("hi")
+                .verifyComplete();
+
+        verify(redisListenerContainer).receive(topic.capture());
+        assertEquals(CHANNEL, topic.getValue().getTopic());
+        verifyNoInteractions(connectionFactory);
+    }
+
+    @Test
+    void receive_StreamTransportStillUsesClassicPubSub() {
+        when(redisListenerContainer.receive(any(ChannelTopic.class))).thenReturn(Flux.empty());
+
+        StepVerifier.create(channels(DeliveryTransport.STREAM).receive(CHANNEL)).verifyComplete();
+
+        verifyNoInteractions(connectionFactory);
+    }
+
+    @Test
+    void publish_PubSubUsesPublish() {
+        when(redisTemplate.convertAndSend(CHANNEL, "payload")).thenReturn(Mono.just(1L));
+
+        StepVerifier.create(channels(DeliveryTransport.PUBSUB).publish(CHANNEL, "payload"))
+                .expectNext(1L)
+                .verifyComplete();
+
+        verify(redisTemplate, never()).execute(any(), any(), any());
+    }
+
+    @Test
+    void receive_ShardedSubscribesOnceWithSsubscribeAndUnsubscribesWhenIdle() {
+        stubShardedConnection();
+        InboxChannels inboxChannels = channels(DeliveryTransport.SHARDED);
+
+        List<String> received = new CopyOnWriteArrayList<>();
+        Disposable first = inboxChannels.receive(CHANNEL).subscribe(received::add);
+        Disposable second = inboxChannels.receive(CHANNEL).subscribe(received::add);
+
+        verify(pubSubCommands, times(1)).ssubscribe(CHANNEL);
+        verify(pubSubConnection).addListener(listener.capture());
+        verifyNoInteractions(redisListenerContainer);
+
+        listener.getValue().message(CHANNEL, "hi");
+        assertEquals(List.of("hi", "hi"), received);
+
+        first.dispose();
+        // The second subscriber still listens on the channel
+        verify(pubSubCommands, never()).sunsubscribe(CHANNEL);
+
+        second.dispose();
+        verify(pubSubCommands).sunsubscribe(CHANNEL);
+    }
+
+    @Test
+    void publish_ShardedUsesSpublishScriptKeyedByChannel() {
+        when(redisTemplate.<Long>execute(any(), eq(List.of(CHANNEL)), eq(List.of("payload")))).thenReturn(Flux.just(1L));
+
+        StepVerifier.create(channels(DeliveryTransport.SHARDED).publish(CHANNEL, "payload"))
+                .expectNext(1L)
+                .verifyComplete();
+
+        verify(redisTemplate, never()).convertAndSend(any(), any());
+    }
+
+    private void stubShardedConnection() {
+        when(connectionFactory.getNativeClient()).thenReturn(redisClient);
+        when(redisClient.connectPubSub()).thenReturn(pubSubConnection);
+        when(pubSubConnection.reactive()).thenReturn(pubSubCommands);
+        when(pubSubCommands.ssubscribe(CHANNEL)).thenReturn(Mono.empty());
+        lenient().when(pubSubCommands.sunsubscribe(CHANNEL)).thenReturn(Mono.empty());
+    }
+
+    private InboxChannels channels(DeliveryTransport transport) {
+        return new InboxChannels(redisListenerContainer, redisTemplate, connectionFactory, transport);
+    }
+}
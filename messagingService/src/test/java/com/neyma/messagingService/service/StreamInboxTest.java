@@ -0,0 +1,150 @@
+package com.neyma.messagingService.service;
+
+import com.neyma.messagingService.config.DeliveryTransport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.ReactiveRedisCallback;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.stream.StreamReceiver;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StreamInboxTest {
+
+    private static final Duration RECLAIM_AFTER = Duration.ofSeconds(30);
+
+    @Mock
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    @Mock
+    private ReactiveStreamOperations<String, String, String> streamOperations;
+
+    @Mock
+    private StreamReceiver<String, MapRecord<String, String, String>> receiver;
+
+    private final UUID instanceId = UUID.randomUUID();
+    private final String streamKey = "inbox:stream:" + instanceId;
+    private final Consumer consumer = Consumer.from("messaging", instanceId.toString());
+
+    private StreamInbox streamInbox;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        lenient().when(redisTemplate.<String, String>opsForStream()).thenReturn(streamOperations);
+        lenient().when(redisTemplate.execute(any(ReactiveRedisCallback.class))).thenReturn(Flux.just("OK"));
+        streamInbox = new StreamInbox(redisTemplate, receiver, new SimpleMeterRegistry(), instanceId,
+                DeliveryTransport.STREAM, RECLAIM_AFTER);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void receive_CreatesGroupAndMergesLiveAndReclaimedEntries() {
+        MapRecord<String, String, String> live = entry("2-0");
+        MapRecord<String, String, String> stale = entry("1-0");
+        when(receiver.receive(eq(consumer), any(StreamOffset.class)))
+                .thenReturn(Flux.just(live).concatWith(Flux.never()));
+        stubPending(pending("1-0", RECLAIM_AFTER.plusSeconds(5)), pending("3-0", Duration.ofSeconds(1)));
+        when(streamOperations.claim(streamKey, "messaging", consumer.getName(), RECLAIM_AFTER, stale.getId()))
+                .thenReturn(Flux.just(stale));
+
+        StepVerifier.create(streamInbox.receive())
+                .expectNext(live)
+                .then(streamInbox::reclaimStale)
+                .expectNext(stale)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        verify(redisTemplate).execute(any(ReactiveRedisCallback.class));
+        // Only the entry idle for longer than reclaim-after is taken over
+        verify(streamOperations).claim(streamKey, "messaging", consumer.getName(), RECLAIM_AFTER, stale.getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void receive_ResubscribingRecreatesGroupAndStillGetsReclaimedEntries() {
+        MapRecord<String, String, String> stale = entry("1-0");
+        when(receiver.receive(eq(consumer), any(StreamOffset.class))).thenReturn(Flux.never());
+        stubPending(pending("1-0", RECLAIM_AFTER));
+        when(streamOperations.claim(streamKey, "messaging", consumer.getName(), RECLAIM_AFTER, stale.getId()))
+                .thenReturn(Flux.just(stale));
+
+        StepVerifier.create(streamInbox.receive()).thenCancel().verify(Duration.ofSeconds(5));
+        StepVerifier.create(streamInbox.receive())
+                .then(streamInbox::reclaimStale)
+                .expectNext(stale)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        verify(redisTemplate, times(2)).execute(any(ReactiveRedisCallback.class));
+    }
+
+    @Test
+    void reclaimStale_ClaimsNothingWhileEntriesAreFresh() {
+        stubPending(pending("1-0", Duration.ofSeconds(1)));
+
+        streamInbox.reclaimStale();
+
+        verify(streamOperations, never()).claim(any(), any(), any(), any(Duration.class), any(RecordId[].class));
+    }
+
+    @Test
+    void reclaimStale_DoesNothingForOtherTransports() {
+        StreamInbox pubSubInbox = new StreamInbox(redisTemplate, receiver, new SimpleMeterRegistry(), instanceId,
+                DeliveryTransport.PUBSUB, RECLAIM_AFTER);
+
+        pubSubInbox.reclaimStale();
+
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void acknowledge_AcksEntryInConsumerGroup() {
+        RecordId recordId = RecordId.of("1-0");
+        when(streamOperations.acknowledge(streamKey, "messaging", recordId)).thenReturn(Mono.just(1L));
+
+        streamInbox.acknowledge(recordId).block();
+
+        verify(streamOperations).acknowledge(streamKey, "messaging", recordId);
+    }
+
+    private void stubPending(PendingMessage... messages) {
+        when(streamOperations.pending(streamKey, consumer, Range.unbounded(), 100L))
+                .thenReturn(Mono.just(new PendingMessages("messaging", List.of(messages))));
+    }
+
+    private PendingMessage pending(String id, Duration idle) {
+        return new PendingMessage(RecordId.of(id), consumer, idle, 1);
+    }
+
+    private MapRecord<String, String, String> entry(String id) {
+        return StreamRecords.newRecord()
+                .in(streamKey)
+                .withId(RecordId.of(id))
+                .ofMap(Map.of("payload", "[]"));
+    }
+}
@@ -55,11 +55,18 @@ export default function Dashboard() {
     const retryCountRef = useRef(0);
     const maxRetries = 5;
 
+    // Last assignment with its signed ticket; reconnects go straight to that instance
+    const assignmentRef = useRef(null);
+
     const connectWebSocket = async () => {
         try {
-            // 1. Get Service Address from Registry
-            const res = await axios.get(`/api/registry/user/${currentUser.id}`);
-            const assignment = res.data;
+            // 1. Get Service Address from Registry, unless a ticket is still cached
+            let assignment = assignmentRef.current;
+            if (!assignment) {
+                const res = await axios.get(`/api/registry/user/${currentUser.id}`);
+                assignment = res.data;
+                assignmentRef.current = assignment;
+            }
 
             if (wsRef.current) {
                 // Remove listener to prevent recursion on intentional close
@@ -69,9 +76,12 @@ export default function Dashboard() {
 
             const wsUrl = assignment.address;
             console.log('Connecting to', wsUrl);
-            const socket = new WebSocket(wsUrl, [currentUser.id]);
+            const protocols = assignment.ticket ? [currentUser.id, assignment.ticket] : [currentUser.id];
+            const socket = new WebSocket(wsUrl, protocols);
 
+            let opened = false;
             socket.onopen = () => {
+                opened = true;
                 console.log('WebSocket Connected');
                 retryCountRef.current = 0; // Reset retries on success
             };
@@ -80,6 +90,9 @@ export default function Dashboard() {
                 try {
                     const msg = JSON.parse(event.data);
 
+                    // Another participant read the chat; nothing to render yet
+                    if (msg.type === 'read') return;
+
                     // Check if chat exists in sidebar
                     const existingChat = chatsRef.current.find(c => c.id === msg.chatId);
 
@@ -104,6 +117,9 @@ export default function Dashboard() {
                     // Add message if it belongs to selected chat
                     if (selectedChatRef.current && msg.chatId === selectedChatRef.current.id) {
                         setMessages(prev => [...prev, msg]);
+                        if (msg.sender !== currentUser.id) {
+                            sendReadReceipt(msg.chatId, msg.messageId, msg.messageTime);
+                        }
                     }
                 } catch (e) {
                     console.error('Error parsing WS message', e);
@@ -112,6 +128,11 @@ export default function Dashboard() {
 
             socket.onclose = (event) => {
                 console.warn('WebSocket Disconnected. Code:', event.code, 'Reason:', event.reason);
+                // Ticket rejected or instance unreachable: ask the registry on the next attempt.
+                // A drop after the socket was open keeps the ticket for a fast reconnect.
+                if (event.code === 4001 || !opened) {
+                    assignmentRef.current = null;
+                }
                 if (retryCountRef.current < maxRetries) {
                     retryCountRef.current++;
                     const delay = Math.min(1000 * retryCountRef.current, 5000); // Exponential backoff
@@ -127,6 +148,7 @@ export default function Dashboard() {
 
         } catch (err) {
             console.error('Failed to connect WebSocket', err);
+            assignmentRef.current = null;
             // Also retry if initial registry call fails
             if (retryCountRef.current < maxRetries) {
                 retryCountRef.current++;
@@ -169,21 +191,43 @@ export default function Dashboard() {
 
     const loadMessages = async (chatId) => {
         try {
-            const res = await axios.get(`/api/history/messages`, {
-                params: {
-                    chatId,
-                    from: new Date(Date.now() - 86400000 * 7).toISOString(), // Last 7 days
-                    to: new Date().toISOString()
-                }
+            // Last messages, oldest first; served from the tail cache for active chats
+            const res = await axios.get(`/api/history/messages/latest`, {
+                params: { chatId, limit: 50 }
             });
-            // Sort messages? Backend usually returns sorted? check.
-            // Cassandra order?
             setMessages(res.data);
+            if (res.data.length > 0) {
+                const last = res.data[res.data.length - 1];
+                sendReadReceipt(chatId, last.messageId, last.messageTime);
+            }
         } catch (err) {
             console.error('Failed to load messages', err);
         }
     };
 
+    // The server coalesces receipts, so sending one per incoming message is fine.
+    // Messages up to messageTime stop counting as unread.
+    const sendReadReceipt = (chatId, messageId, messageTime) => {
+        const socket = wsRef.current;
+        if (!socket || socket.readyState !== WebSocket.OPEN || !messageId || !messageTime) return;
+        socket.send(JSON.stringify({ type: 'read', chatId, messageId, messageTime }));
+    };
+
+    // Large messages only carry a preview; the full body is fetched on demand
+    const loadFullMessage = async (chatId, blobRef) => {
+        try {
+            const res = await axios.get(`/api/messages/blobs/${blobRef}`, {
+                params: { chatId },
+                responseType: 'text'
+            });
+            setMessages(prev => prev.map(m => m.blobRef === blobRef
+                ? { ...m, message: res.data, messageContent: res.data, blobRef: null }
+                : m));
+        } catch (err) {
+            console.error('Failed to load full message', err);
+        }
+    };
+
     const sendMessage = async (e) => {
         e.preventDefault();
         if (!messageInput.trim() || !selectedChat || !ws) return;
@@ -337,6 +381,14 @@ export default function Dashboard() {
                                                 borderBottomLeftRadius: (msg.sender === currentUser.id || msg.userId === currentUser.id) ? '1rem' : '2px',
                                             }}>
                                                 {msg.message || msg.messageContent}
+                                                {msg.blobRef && (
+                                                    <div>
+                                                        <button onClick={() => loadFullMessage(msg.chatId, msg.blobRef)}
+                                                            style={{ background: 'transparent', border: 'none', color: 'var(--primary)', cursor: 'pointer', padding: 0 }}>
+                                                            Show full message
+                                                        </button>
+                                                    </div>
+                                                )}
                                             </div>
                                             <div style={{ fontSize: '0.7rem', color: 'var(--text-muted)', textAlign: 'right', marginTop: '4px' }}>
                                                 {new Date(msg.messageTime || msg.timestamp).toLocaleTimeString()}
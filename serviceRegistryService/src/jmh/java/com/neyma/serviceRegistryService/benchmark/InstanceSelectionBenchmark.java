@@ -0,0 +1,154 @@
+package com.neyma.serviceRegistryService.benchmark;
+
+import com.neyma.serviceRegistryService.service.AssignmentPolicy;
+import com.neyma.serviceRegistryService.service.AssignmentPolicy.Strategy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates user churn over messagingService instances of unequal capacity and
+ * reports, per selection strategy, how many connects landed on an instance that
+ * was already at capacity. Instances report load the way InstanceHealthReporter
+ * does: CPU grows with sessions relative to capacity, outbound queues build up
+ * once an instance is saturated, and the figures are refreshed only every
+ * heartbeatInterval connects (with the registry's optimistic session increment
+ * in between).
+ *
+ * Run with: ./gradlew :serviceRegistryService:jmh
+ * and compare the overloaded / assignments counters between strategies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InstanceSelectionBenchmark {
+
+    private static final int INSTANCES = 12;
+    private static final long QUEUE_BYTES_PER_EXCESS_SESSION = 2048;
+
+    @Param({"RANDOM", "POWER_OF_CHOICES", "LEAST_LOADED"})
+    public Strategy strategy;
+
+    // Capacities are 100 sessions each, or spread 8x between the smallest and largest instance
+    @Param({"uniform", "skewed"})
+    public String capacities;
+
+    @Param({"50"})
+    public int heartbeatInterval;
+
+    private AssignmentPolicy policy;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private int[] capacity;
+    private int[] sessions;
+    private long[] reportedSessions;
+    private long[] reportedQueueBytes;
+    private double[] reportedCpu;
+    private int connects;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+        public long assignments;
+        public long overloaded;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            assignments = 0;
+            overloaded = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        policy = new AssignmentPolicy(strategy, 2, 1.0, 0.5, 2.0);
+        capacity = new int[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            capacity[i] = "skewed".equals(capacities) ? 25 << (i % 4) : 100;
+        }
+        sessions = new int[INSTANCES];
+        reportedSessions = new long[INSTANCES];
+        reportedQueueBytes = new long[INSTANCES];
+        reportedCpu = new double[INSTANCES];
+        connects = 0;
+    }
+
+    @Benchmark
+    public int connect(Outcome outcome) {
+        // Keep the population around 80% of the total capacity
+        int total = 0;
+        int totalCapacity = 0;
+        for (int i = 0; i < INSTANCES; i++) {
+            total += sessions[i];
+            totalCapacity += capacity[i];
+        }
+        if (total > totalCapacity * 0.8) {
+            disconnectRandomUser(total);
+        }
+
+        int picked = select();
+        outcome.assignments++;
+        if (sessions[picked] >= capacity[picked]) {
+            outcome.overloaded++;
+        }
+        sessions[picked]++;
+        reportedSessions[picked]++;
+
+        if (++connects % heartbeatInterval == 0) {
+            heartbeat();
+        }
+        return picked;
+    }
+
+    private int select() {
+        if (strategy == Strategy.LEAST_LOADED) {
+            int best = 0;
+            for (int i = 1; i < INSTANCES; i++) {
+                if (score(i) < score(best)) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+        int best = random.nextInt(INSTANCES);
+        for (int c = 1; c < policy.getChoices(); c++) {
+            int candidate = random.nextInt(INSTANCES);
+            if (score(candidate) < score(best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private double score(int instance) {
+        return policy.score(reportedSessions[instance], reportedQueueBytes[instance], reportedCpu[instance]);
+    }
+
+    private void heartbeat() {
+        for (int i = 0; i < INSTANCES; i++) {
+            reportedSessions[i] = sessions[i];
+            reportedQueueBytes[i] = Math.max(0, sessions[i] - capacity[i]) * QUEUE_BYTES_PER_EXCESS_SESSION;
+            reportedCpu[i] = Math.min(1.0, (double) sessions[i] / capacity[i]);
+        }
+    }
+
+    private void disconnectRandomUser(int total) {
+        int user = random.nextInt(total);
+        for (int i = 0; i < INSTANCES; i++) {
+            if (user < sessions[i]) {
+                sessions[i]--;
+                return;
+            }
+            user -= sessions[i];
+        }
+    }
+}
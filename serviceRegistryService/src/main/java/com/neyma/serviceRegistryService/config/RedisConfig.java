@@ -3,11 +3,25 @@ package com.neyma.serviceRegistryService.config;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 @Configuration
 public class RedisConfig {
 
+    /**
+     * The registry needs a standalone (or Sentinel-managed) Redis: the assignment
+     * script and the expiry cleanup read and write keys of instances they only learn
+     * about while running (service:alive:*, service_users:*, ...), which a cluster
+     * would reject as cross-slot, so startup fails rather than erroring per request.
+     */
+    public RedisConfig(RedisConnectionFactory connectionFactory) {
+        if (connectionFactory instanceof LettuceConnectionFactory lettuce && lettuce.isClusterAware()) {
+            throw new IllegalStateException("serviceRegistryService does not support Redis Cluster; "
+                    + "configure a standalone or Sentinel Redis");
+        }
+    }
+
     @Bean
     public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
@@ -5,11 +5,15 @@ import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import com.neyma.serviceRegistryService.service.AssignmentTickets;
 import com.neyma.serviceRegistryService.service.RegistryService;
 import com.neyma.serviceRegistryService.dto.ServiceAssignment;
+import com.neyma.serviceRegistryService.dto.ServiceInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @RestController
@@ -17,11 +21,16 @@ import java.util.UUID;
 @Tag(name = "Service Registry", description = "API for managing service registration and user assignment")
 public class RegistryController {
 
+    // Keeps a single request from holding a pipeline of thousands of script calls
+    private static final int MAX_BULK_USERS = 1000;
+
     private final RegistryService registryService;
+    private final AssignmentTickets assignmentTickets;
 
     @Autowired
-    public RegistryController(RegistryService registryService) {
+    public RegistryController(RegistryService registryService, AssignmentTickets assignmentTickets) {
         this.registryService = registryService;
+        this.assignmentTickets = assignmentTickets;
     }
 
     @Operation(summary = "Register a service", description = "Registers a service instance as available, along with its client-facing address.")
@@ -31,12 +40,25 @@ public class RegistryController {
     @PostMapping("/service/{serviceId}")
     public ResponseEntity<Void> registerService(
             @Parameter(description = "The UUID of the service instance to register") @PathVariable UUID serviceId,
-            @Parameter(description = "The public WebSocket address (URL) of the service") @RequestParam String address) {
-        registryService.registerService(serviceId, address);
+            @Parameter(description = "The public WebSocket address (URL) of the service") @RequestParam String address,
+            @Parameter(description = "The WebSocket address (URL) reachable from inside the deployment, used by the gateway") @RequestParam(required = false) String internalAddress) {
+        registryService.registerService(serviceId, address, internalAddress);
         return ResponseEntity.ok().build();
     }
 
-    @Operation(summary = "Get assigned service", description = "Retrieves the assigned Service ID and Address for a specific user. If no service is assigned, one will be selected.")
+    @Operation(summary = "Get service instance", description = "Retrieves the public and internal addresses of a registered service instance.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved the instance"),
+            @ApiResponse(responseCode = "404", description = "The instance is not registered")
+    })
+    @GetMapping("/service/{serviceId}")
+    public ResponseEntity<ServiceInstance> getServiceInstance(
+            @Parameter(description = "The UUID of the service instance") @PathVariable UUID serviceId) {
+        ServiceInstance instance = registryService.getServiceInstance(serviceId);
+        return instance != null ? ResponseEntity.ok(instance) : ResponseEntity.notFound().build();
+    }
+
+    @Operation(summary = "Get assigned service", description = "Retrieves the assigned Service ID and Address for a specific user, with a signed ticket for reconnecting directly. If no service is assigned, one will be selected.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successfully retrieved assigned service info"),
             @ApiResponse(responseCode = "500", description = "No services available to assign")
@@ -45,6 +67,25 @@ public class RegistryController {
     public ResponseEntity<ServiceAssignment> getServiceAssignment(
             @Parameter(description = "The UUID of the user requesting a service") @PathVariable UUID userId) {
         ServiceAssignment assignment = registryService.getServiceAssignment(userId);
+        assignment.setTicket(assignmentTickets.issue(userId, assignment.getServiceId()));
         return ResponseEntity.ok(assignment);
     }
+
+    @Operation(summary = "Get assigned services in bulk", description = "Retrieves the assigned Service ID and Address for each of the given users, selecting a service for users that have none. Meant for reconnect storms and internal routing.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Assignments keyed by user ID"),
+            @ApiResponse(responseCode = "400", description = "More than 1000 user IDs in one request"),
+            @ApiResponse(responseCode = "500", description = "No services available to assign")
+    })
+    @PostMapping("/users/assignments")
+    public ResponseEntity<Map<UUID, ServiceAssignment>> getServiceAssignments(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "The UUIDs of the users requesting a service") @RequestBody List<UUID> userIds) {
+        if (userIds.size() > MAX_BULK_USERS) {
+            return ResponseEntity.badRequest().build();
+        }
+        Map<UUID, ServiceAssignment> assignments = registryService.getServiceAssignments(userIds);
+        assignments.forEach((userId, assignment) ->
+                assignment.setTicket(assignmentTickets.issue(userId, assignment.getServiceId())));
+        return ResponseEntity.ok(assignments);
+    }
 }
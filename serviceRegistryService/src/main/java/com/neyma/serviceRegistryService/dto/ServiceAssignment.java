@@ -12,4 +12,10 @@ import java.util.UUID;
 public class ServiceAssignment {
     private UUID serviceId;
     private String address;
+    // Signed, short-lived proof of this assignment for reconnecting without the registry
+    private String ticket;
+
+    public ServiceAssignment(UUID serviceId, String address) {
+        this(serviceId, address, null);
+    }
 }
@@ -0,0 +1,17 @@
+package com.neyma.serviceRegistryService.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ServiceInstance {
+    private UUID serviceId;
+    private String address;
+    // Address reachable from inside the deployment, e.g. for the gateway; null if not registered
+    private String internalAddress;
+}
@@ -0,0 +1,62 @@
+package com.neyma.serviceRegistryService.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * How the registry picks an instance for a new user. Load is the weighted sum of
+ * what each messagingService reports with its heartbeat; the selection itself runs
+ * inside the assignment script, which computes the same score.
+ */
+@Component
+public class AssignmentPolicy {
+
+    public enum Strategy {
+        // Uniform SRANDMEMBER, ignores load
+        RANDOM,
+        // Samples `choices` instances and takes the least loaded of them
+        POWER_OF_CHOICES,
+        // Scores every registered instance
+        LEAST_LOADED
+    }
+
+    private final Strategy strategy;
+    private final int choices;
+    private final double sessionWeight;
+    private final double queueKbWeight;
+    private final double cpuWeight;
+
+    public AssignmentPolicy(
+            @Value("${registry.assignment.strategy:power-of-choices}") Strategy strategy,
+            @Value("${registry.assignment.choices:2}") int choices,
+            @Value("${registry.assignment.weights.sessions:1.0}") double sessionWeight,
+            @Value("${registry.assignment.weights.queue-kb:0.5}") double queueKbWeight,
+            @Value("${registry.assignment.weights.cpu:2.0}") double cpuWeight) {
+        this.strategy = strategy;
+        this.choices = strategy == Strategy.RANDOM ? 1 : Math.max(1, choices);
+        this.sessionWeight = sessionWeight;
+        this.queueKbWeight = queueKbWeight;
+        this.cpuWeight = cpuWeight;
+    }
+
+    // cpu is the reported process load between 0 and 1, scored in percent
+    public double score(long sessions, long queueBytes, double cpu) {
+        return sessionWeight * sessions + queueKbWeight * queueBytes / 1024.0 + cpuWeight * cpu * 100;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int getChoices() {
+        return choices;
+    }
+
+    // Order matches ARGV[3..7] of scripts/assign_user.lua
+    List<String> scriptArgs() {
+        return List.of(strategy.name(), String.valueOf(choices),
+                String.valueOf(sessionWeight), String.valueOf(queueKbWeight), String.valueOf(cpuWeight));
+    }
+}
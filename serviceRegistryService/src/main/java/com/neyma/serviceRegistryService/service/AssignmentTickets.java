@@ -0,0 +1,59 @@
+package com.neyma.serviceRegistryService.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Issues short-lived assignment tickets: "userId:serviceId:expiresAtMillis",
+ * signed with HMAC-SHA256 under a secret shared with the messagingService
+ * instances. A client that still holds a valid ticket reconnects straight to its
+ * instance, which verifies the ticket locally instead of calling the registry.
+ */
+@Component
+public class AssignmentTickets {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    // HMAC-SHA256 keys shorter than the hash output weaken the signature
+    static final int MIN_SECRET_BYTES = 32;
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+
+    public AssignmentTickets(
+            @Value("${registry.ticket.secret}") String secret,
+            @Value("${registry.ticket.ttl:10m}") Duration ttl) {
+        byte[] secretBytes = secret == null ? new byte[0] : secret.getBytes(StandardCharsets.UTF_8);
+        if (secretBytes.length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("registry.ticket.secret (ASSIGNMENT_TICKET_SECRET) must be set to at least "
+                    + MIN_SECRET_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(secretBytes, ALGORITHM);
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    // Format: base64url(claims) + "." + base64url(signature)
+    public String issue(UUID userId, UUID serviceId) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        byte[] claims = (userId + ":" + serviceId + ":" + expiresAt).getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(claims) + "." + ENCODER.encodeToString(sign(claims));
+    }
+
+    private byte[] sign(byte[] claims) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(claims);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign assignment ticket", e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.neyma.serviceRegistryService.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Detects dead messagingService instances off the request path. Expired
+ * service:alive:<id> keys are picked up from keyspace notifications (Redis needs
+ * notify-keyspace-events Ex), and a periodic sweep over the
+ * {@link LiveInstanceSnapshot} catches both missed notifications and stale
+ * heartbeats that have not expired yet. Cleanup itself is
+ * done by {@link RegistryService#handleServiceExpiration}.
+ */
+@Component
+public class ExpirySweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpirySweeper.class);
+
+    private static final String ALIVE_KEY_PREFIX = "service:alive:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final RegistryService registryService;
+    private final LiveInstanceSnapshot liveInstances;
+
+    public ExpirySweeper(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer,
+            RegistryService registryService, LiveInstanceSnapshot liveInstances) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.registryService = registryService;
+        this.liveInstances = liveInstances;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void listenForExpiredHeartbeats() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (key.startsWith(ALIVE_KEY_PREFIX)) {
+                expire(key.substring(ALIVE_KEY_PREFIX.length()));
+            }
+        }, new PatternTopic("__keyevent@*__:expired"));
+    }
+
+    @Scheduled(fixedDelayString = "${registry.sweeper.interval:PT2S}")
+    public void sweep() {
+        // A stale snapshot says nothing reliable about heartbeats; only drain known dead ones
+        if (!liveInstances.isStale()) {
+            liveInstances.unavailable().forEach((serviceId, state) -> {
+                if (state == PhiAccrualDetector.State.DEAD) {
+                    markDead(serviceId);
+                }
+            });
+        }
+
+        Set<String> dead = redisTemplate.opsForSet().members(RegistryService.DEAD_SERVICES_KEY);
+        if (dead != null) {
+            dead.forEach(this::cleanUp);
+        }
+    }
+
+    private void expire(String serviceId) {
+        logger.info("Heartbeat of service {} expired", serviceId);
+        markDead(serviceId);
+        liveInstances.refresh();
+        cleanUp(serviceId);
+    }
+
+    private void markDead(String serviceId) {
+        redisTemplate.opsForSet().move(RegistryService.AVAILABLE_SERVICES_KEY, serviceId,
+                RegistryService.DEAD_SERVICES_KEY);
+    }
+
+    private void cleanUp(String serviceId) {
+        try {
+            registryService.handleServiceExpiration(UUID.fromString(serviceId));
+        } catch (Exception e) {
+            // Stays in dead_services and is retried on the next sweep
+            logger.error("Failed to clean up service {}: {}", serviceId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.neyma.serviceRegistryService.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Consistent-hash ring with virtual nodes. Every node is placed on the ring at
+ * {@code virtualNodes} points; a key belongs to the first point clockwise from its
+ * own hash. Adding or removing a node only touches that node's points, so roughly
+ * 1/N of the keys change owner. Lookups are lock-free and safe to run while the
+ * ring is being updated.
+ */
+public class HashRing {
+
+    private final int virtualNodes;
+    private final NavigableMap<Long, String> ring = new ConcurrentSkipListMap<>();
+    private final Set<String> nodes = ConcurrentHashMap.newKeySet();
+
+    public HashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    public boolean add(String node) {
+        if (!nodes.add(node)) {
+            return false;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(node + "#" + i), node);
+        }
+        return true;
+    }
+
+    public boolean remove(String node) {
+        if (!nodes.remove(node)) {
+            return false;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            // Only drop the point if it wasn't taken over by another node on a collision
+            ring.remove(hash(node + "#" + i), node);
+        }
+        return true;
+    }
+
+    /**
+     * @return the node owning the key, or null if the ring is empty
+     */
+    public String nodeFor(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(key));
+        if (owner == null) {
+            owner = ring.firstEntry();
+        }
+        return owner == null ? null : owner.getValue();
+    }
+
+    public Set<String> nodes() {
+        return Set.copyOf(nodes);
+    }
+
+    // First 8 bytes of MD5: well spread and identical on every registry replica
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.neyma.serviceRegistryService.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Locally cached view of the registered messagingService instances, their last
+ * heartbeats and addresses. It is reloaded every few hundred milliseconds (and
+ * right after registrations and expiry notifications) and swapped atomically, so
+ * liveness checks on the request path never touch Redis. Every refresh feeds the
+ * heartbeats into a {@link PhiAccrualDetector}, which decides liveness.
+ */
+@Component
+public class LiveInstanceSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveInstanceSnapshot.class);
+
+    public record Snapshot(Set<String> registered, Map<String, Long> heartbeats, Map<String, String> addresses,
+            long takenAt) {
+
+        static final Snapshot EMPTY = new Snapshot(Set.of(), Map.of(), Map.of(), 0);
+
+        public String address(String serviceId) {
+            return addresses.get(serviceId);
+        }
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final PhiAccrualDetector failureDetector;
+    private final long maxAgeMillis;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+    private final Timer refreshTimer;
+
+    public LiveInstanceSnapshot(
+            StringRedisTemplate redisTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${registry.snapshot.max-age:2s}") Duration maxAge,
+            @Value("${registry.failure-detector.suspect-threshold:3}") double suspectThreshold,
+            @Value("${registry.failure-detector.dead-threshold:10}") double deadThreshold,
+            @Value("${registry.failure-detector.window-size:100}") int windowSize,
+            @Value("${registry.failure-detector.min-std-dev:250ms}") Duration minStdDev,
+            @Value("${registry.failure-detector.acceptable-pause:1s}") Duration acceptablePause,
+            @Value("${registry.failure-detector.expected-interval:1s}") Duration expectedInterval) {
+        this.redisTemplate = redisTemplate;
+        this.failureDetector = new PhiAccrualDetector(suspectThreshold, deadThreshold, windowSize,
+                minStdDev.toMillis(), acceptablePause.toMillis(), expectedInterval.toMillis());
+        this.maxAgeMillis = maxAge.toMillis();
+        this.refreshTimer = Timer.builder("registry.snapshot.refresh")
+                .description("Time to reload the live-instance snapshot from Redis")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("registry.snapshot.age", this, LiveInstanceSnapshot::ageMillis)
+                .description("Milliseconds since the live-instance snapshot was taken")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("registry.snapshot.instances", current, ref -> ref.get().registered().size())
+                .description("Registered instances in the live-instance snapshot")
+                .register(meterRegistry);
+        for (PhiAccrualDetector.State state : PhiAccrualDetector.State.values()) {
+            Gauge.builder("registry.instances", this, snapshot -> snapshot.countIn(state))
+                    .description("Registered instances per failure detector state")
+                    .tag("state", state.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+    }
+
+    public Snapshot current() {
+        return current.get();
+    }
+
+    public PhiAccrualDetector.State state(String serviceId) {
+        return failureDetector.state(serviceId, System.currentTimeMillis());
+    }
+
+    /**
+     * Registered instances the failure detector does not consider alive. Empty
+     * while the snapshot is stale, since the detector has not seen recent data.
+     */
+    public Map<String, PhiAccrualDetector.State> unavailable() {
+        if (isStale()) {
+            return Map.of();
+        }
+        long now = System.currentTimeMillis();
+        Map<String, PhiAccrualDetector.State> unavailable = new HashMap<>();
+        for (String serviceId : current.get().registered()) {
+            PhiAccrualDetector.State state = failureDetector.state(serviceId, now);
+            if (state != PhiAccrualDetector.State.ALIVE) {
+                unavailable.put(serviceId, state);
+            }
+        }
+        return unavailable;
+    }
+
+    /**
+     * A snapshot that could not be refreshed for a while (e.g. Redis unreachable) is
+     * not trusted; callers fall back to checking Redis directly.
+     */
+    public boolean isStale() {
+        return ageMillis() > maxAgeMillis;
+    }
+
+    @Scheduled(fixedDelayString = "${registry.snapshot.refresh-interval:PT0.25S}")
+    public void refresh() {
+        try {
+            Snapshot snapshot = refreshTimer.record(this::load);
+            // Each refresh feeds the detector with the time the registry read the heartbeats;
+            // the values are written with the instances' clocks and only identify new beats
+            snapshot.heartbeats().forEach((serviceId, heartbeat) ->
+                    failureDetector.heartbeat(serviceId, heartbeat, snapshot.takenAt()));
+            failureDetector.retain(snapshot.registered());
+            current.set(snapshot);
+        } catch (Exception e) {
+            logger.warn("Failed to refresh live-instance snapshot: {}", e.getMessage());
+        }
+    }
+
+    private Snapshot load() {
+        Set<String> members = redisTemplate.opsForSet().members(RegistryService.AVAILABLE_SERVICES_KEY);
+        List<String> ids = members == null ? List.of() : new ArrayList<>(members);
+        long takenAt = System.currentTimeMillis();
+        if (ids.isEmpty()) {
+            return new Snapshot(Set.of(), Map.of(), Map.of(), takenAt);
+        }
+
+        // Heartbeats and addresses of all instances in one MGET
+        List<String> keys = new ArrayList<>(ids.size() * 2);
+        ids.forEach(id -> keys.add("service:alive:" + id));
+        ids.forEach(id -> keys.add("service_address:" + id));
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+
+        Map<String, Long> heartbeats = new HashMap<>();
+        Map<String, String> addresses = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Long heartbeat = parseHeartbeat(values.get(i));
+            if (heartbeat != null) {
+                heartbeats.put(ids.get(i), heartbeat);
+            }
+            String address = values.get(ids.size() + i);
+            if (address != null) {
+                addresses.put(ids.get(i), address);
+            }
+        }
+        return new Snapshot(Set.copyOf(ids), Map.copyOf(heartbeats), Map.copyOf(addresses), takenAt);
+    }
+
+    private long countIn(PhiAccrualDetector.State state) {
+        long now = System.currentTimeMillis();
+        return current.get().registered().stream()
+                .filter(serviceId -> failureDetector.state(serviceId, now) == state)
+                .count();
+    }
+
+    private long ageMillis() {
+        return System.currentTimeMillis() - current.get().takenAt();
+    }
+
+    private static Long parseHeartbeat(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
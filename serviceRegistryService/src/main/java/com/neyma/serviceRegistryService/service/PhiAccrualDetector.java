@@ -0,0 +1,139 @@
+package com.neyma.serviceRegistryService.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi-accrual failure detector (Hayashibara et al.) over the heartbeats that
+ * messagingService instances write to Redis. Instead of a fixed timeout it keeps
+ * a sliding window of heartbeat inter-arrival times per instance and turns the
+ * time since the last heartbeat into a suspicion level phi: phi = 1 means about a
+ * 10% chance the instance is still alive and only late, phi = 2 about 1%, and so
+ * on. Instances with a jittery history therefore get more slack than ones that
+ * beat like clockwork.
+ */
+public class PhiAccrualDetector {
+
+    public enum State {
+        ALIVE,
+        // Late enough to stop sending new users there, not late enough to evict anyone
+        SUSPECT,
+        DEAD
+    }
+
+    private final double suspectThreshold;
+    private final double deadThreshold;
+    private final int windowSize;
+    private final double minStdDevMillis;
+    private final double acceptablePauseMillis;
+    private final double firstIntervalMillis;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    public PhiAccrualDetector(double suspectThreshold, double deadThreshold, int windowSize,
+            long minStdDevMillis, long acceptablePauseMillis, long firstIntervalMillis) {
+        if (suspectThreshold <= 0 || deadThreshold < suspectThreshold) {
+            throw new IllegalArgumentException("Thresholds must satisfy 0 < suspect <= dead");
+        }
+        this.suspectThreshold = suspectThreshold;
+        this.deadThreshold = deadThreshold;
+        this.windowSize = windowSize;
+        this.minStdDevMillis = minStdDevMillis;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+        this.firstIntervalMillis = firstIntervalMillis;
+    }
+
+    /**
+     * Records the heartbeat value the instance last wrote, seen by the registry at
+     * {@code arrivedAt}. Only the registry's own clock is used for intervals and
+     * phi, so an instance clock that is skewed or steps does not matter; the value
+     * just tells a new heartbeat from the same one seen again, which is ignored.
+     */
+    public void heartbeat(String instanceId, long value, long arrivedAt) {
+        histories.computeIfAbsent(instanceId, id -> new History(windowSize, firstIntervalMillis, value, arrivedAt))
+                .record(value, arrivedAt);
+    }
+
+    public double phi(String instanceId, long now) {
+        History history = histories.get(instanceId);
+        if (history == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return history.phi(now, minStdDevMillis, acceptablePauseMillis);
+    }
+
+    public State state(String instanceId, long now) {
+        double phi = phi(instanceId, now);
+        if (phi >= deadThreshold) {
+            return State.DEAD;
+        }
+        return phi >= suspectThreshold ? State.SUSPECT : State.ALIVE;
+    }
+
+    // Forgets instances that are no longer registered
+    public void retain(Set<String> instanceIds) {
+        histories.keySet().retainAll(instanceIds);
+    }
+
+    private static final class History {
+
+        private final long[] intervals;
+        private int count;
+        private int next;
+        private double sum;
+        private double sumOfSquares;
+        private long lastValue;
+        private long lastArrival;
+
+        History(int windowSize, double firstIntervalMillis, long firstValue, long firstArrival) {
+            this.intervals = new long[windowSize];
+            this.lastValue = firstValue;
+            this.lastArrival = firstArrival;
+            // Seed with two samples around the expected interval so the first few
+            // heartbeats don't produce a zero standard deviation
+            long spread = (long) (firstIntervalMillis / 4);
+            add((long) firstIntervalMillis - spread);
+            add((long) firstIntervalMillis + spread);
+        }
+
+        synchronized void record(long value, long arrivedAt) {
+            if (value == lastValue || arrivedAt <= lastArrival) {
+                return;
+            }
+            add(arrivedAt - lastArrival);
+            lastValue = value;
+            lastArrival = arrivedAt;
+        }
+
+        synchronized double phi(long now, double minStdDev, double acceptablePause) {
+            double mean = sum / count;
+            double variance = sumOfSquares / count - mean * mean;
+            double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDev);
+            return logisticPhi(now - lastArrival, mean + acceptablePause, stdDev);
+        }
+
+        private void add(long interval) {
+            if (count == intervals.length) {
+                long evicted = intervals[next];
+                sum -= evicted;
+                sumOfSquares -= (double) evicted * evicted;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        // Logistic approximation of the normal CDF, as used by Akka and Cassandra
+        private static double logisticPhi(long elapsed, double mean, double stdDev) {
+            double y = (elapsed - mean) / stdDev;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (elapsed > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+}
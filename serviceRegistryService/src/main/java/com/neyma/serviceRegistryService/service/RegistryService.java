@@ -1,17 +1,24 @@
 package com.neyma.serviceRegistryService.service;
 
 import com.neyma.serviceRegistryService.dto.ServiceAssignment;
+import com.neyma.serviceRegistryService.dto.ServiceInstance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.connection.RedisConnection;
-import org.springframework.data.redis.connection.RedisPubSubCommands;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
-import java.nio.charset.StandardCharsets;
 
 @org.springframework.stereotype.Service
 public class RegistryService {
@@ -19,118 +26,223 @@ public class RegistryService {
     private static final Logger logger = LoggerFactory.getLogger(RegistryService.class);
 
     private final StringRedisTemplate redisTemplate;
+    private final AssignmentPolicy assignmentPolicy;
+    private final RingAssignment ringAssignment;
+    private final LiveInstanceSnapshot liveInstances;
 
     @Autowired
-    public RegistryService(StringRedisTemplate redisTemplate) {
+    public RegistryService(StringRedisTemplate redisTemplate, AssignmentPolicy assignmentPolicy,
+            RingAssignment ringAssignment, LiveInstanceSnapshot liveInstances) {
         this.redisTemplate = redisTemplate;
+        this.assignmentPolicy = assignmentPolicy;
+        this.ringAssignment = ringAssignment;
+        this.liveInstances = liveInstances;
     }
 
-    private static final String AVAILABLE_SERVICES_KEY = "available_services";
+    static final String AVAILABLE_SERVICES_KEY = "available_services";
+    // Instances found dead but not cleaned up yet
+    static final String DEAD_SERVICES_KEY = "dead_services";
+    private static final int CLEANUP_CHUNK_SIZE = 500;
+
+    private static final int MAX_SELECTION_ROUNDS = 10;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ASSIGN_USER_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/assign_user.lua"), List.class);
 
     public void registerService(UUID serviceId, String address) {
+        registerService(serviceId, address, null);
+    }
+
+    public void registerService(UUID serviceId, String address, String internalAddress) {
         logger.info("Registering service with ID: {} at address: {}", serviceId, address);
         redisTemplate.opsForSet().add(AVAILABLE_SERVICES_KEY, serviceId.toString());
         // Save address
         redisTemplate.opsForValue().set("service_address:" + serviceId, address);
+        if (internalAddress != null && !internalAddress.isBlank()) {
+            redisTemplate.opsForValue().set("service_internal_address:" + serviceId, internalAddress);
+        }
+        liveInstances.refresh();
+    }
+
+    /**
+     * Addresses of a registered instance, or null if it is not (or no longer)
+     * registered.
+     */
+    public ServiceInstance getServiceInstance(UUID serviceId) {
+        List<String> addresses = redisTemplate.opsForValue().multiGet(
+                List.of("service_address:" + serviceId, "service_internal_address:" + serviceId));
+        if (addresses == null || addresses.get(0) == null) {
+            return null;
+        }
+        return new ServiceInstance(serviceId, addresses.get(0), addresses.get(1));
     }
 
+    /**
+     * Returns the user's assignment straight away if the live-instance snapshot
+     * shows its instance alive. Otherwise the lookup, liveness check, picking a new
+     * instance according to the {@link AssignmentPolicy} and recording it run in a
+     * single script call. Dead instances found on the way are moved out of the pool
+     * by the script and left to {@link ExpirySweeper}. In ring mode nothing is
+     * stored: the user's instance follows from the consistent-hash ring.
+     */
     public ServiceAssignment getServiceAssignment(UUID userId) {
+        if (ringAssignment.isEnabled()) {
+            return ringAssignment.assign(userId);
+        }
+
+        // Fast path: an existing assignment to an instance the snapshot knows is alive
         String cacheKey = "user_service:" + userId;
         String cachedServiceId = redisTemplate.opsForValue().get(cacheKey);
-
-        UUID serviceId = null;
-        if (cachedServiceId != null) {
-            UUID cachedUuid = UUID.fromString(cachedServiceId);
-            if (isInstanceAlive(cachedUuid)) {
-                logger.debug("Found cached and alive service ID {} for user {}", cachedUuid, userId);
-                serviceId = cachedUuid;
-            } else {
-                logger.warn("Cached service {} is dead. Re-assigning.", cachedUuid);
-                handleServiceExpiration(cachedUuid);
-            }
+        // Suspect instances keep the users they already have
+        if (cachedServiceId != null && !liveInstances.isStale()
+                && liveInstances.state(cachedServiceId) != PhiAccrualDetector.State.DEAD) {
+            logger.debug("Found cached and alive service ID {} for user {}", cachedServiceId, userId);
+            return new ServiceAssignment(UUID.fromString(cachedServiceId),
+                    liveInstances.current().address(cachedServiceId));
         }
 
-        if (serviceId == null) {
-            serviceId = getRandomServiceId();
-            logger.info("Assigned random service ID {} to user {}", serviceId, userId);
-
-            cacheServiceId(cacheKey, serviceId);
+        List<Object> result = redisTemplate.execute(ASSIGN_USER_SCRIPT,
+                List.of(cacheKey, AVAILABLE_SERVICES_KEY), scriptArgs(userId, liveInstances.unavailable()).toArray());
+        return toAssignment(userId, result);
+    }
 
-            String reverseIndexKey = "service_users:" + serviceId;
-            redisTemplate.opsForSet().add(reverseIndexKey, userId.toString());
+    /**
+     * Bulk variant of {@link #getServiceAssignment} with the same create-on-miss
+     * semantics. Existing assignments are read with one MGET and checked against a
+     * single pass over the live-instance snapshot; the remaining users go through
+     * the assignment script, pipelined as EVALSHA calls.
+     */
+    public Map<UUID, ServiceAssignment> getServiceAssignments(Collection<UUID> userIds) {
+        List<UUID> users = userIds.stream().distinct().toList();
+        Map<UUID, ServiceAssignment> assignments = new LinkedHashMap<>();
+        if (users.isEmpty()) {
+            return assignments;
+        }
+        if (ringAssignment.isEnabled()) {
+            users.forEach(userId -> assignments.put(userId, ringAssignment.assign(userId)));
+            return assignments;
         }
 
-        String address = redisTemplate.opsForValue().get("service_address:" + serviceId);
-        return new ServiceAssignment(serviceId, address);
-    }
-
-    private UUID getRandomServiceId() {
-        for (int i = 0; i < 10; i++) {
-            String randomId = redisTemplate.opsForSet().randomMember(AVAILABLE_SERVICES_KEY);
-            if (randomId == null) {
-                logger.error("No available services found in registry");
-                throw new RuntimeException("No services available to assign");
+        List<String> cachedServiceIds = redisTemplate.opsForValue()
+                .multiGet(users.stream().map(userId -> "user_service:" + userId).toList());
+        boolean trusted = !liveInstances.isStale();
+        LiveInstanceSnapshot.Snapshot snapshot = liveInstances.current();
+        Map<String, PhiAccrualDetector.State> unavailable = liveInstances.unavailable();
+
+        List<UUID> misses = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            String cachedServiceId = cachedServiceIds == null ? null : cachedServiceIds.get(i);
+            // Same rule as the single lookup: anything registered and not DEAD keeps its users
+            if (cachedServiceId != null && trusted && snapshot.registered().contains(cachedServiceId)
+                    && unavailable.get(cachedServiceId) != PhiAccrualDetector.State.DEAD) {
+                assignments.put(users.get(i), new ServiceAssignment(UUID.fromString(cachedServiceId),
+                        snapshot.address(cachedServiceId)));
+            } else {
+                assignments.put(users.get(i), null);
+                misses.add(users.get(i));
             }
+        }
+        if (misses.isEmpty()) {
+            return assignments;
+        }
 
-            UUID serviceId = UUID.fromString(randomId);
-            if (isInstanceAlive(serviceId)) {
-                return serviceId;
-            } else {
-                logger.warn("Randomly picked service {} is dead. removing...", serviceId);
-                handleServiceExpiration(serviceId);
+        // EVALSHA inside a pipeline cannot fall back to EVAL, so make sure the script is loaded
+        byte[] script = ASSIGN_USER_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Object>) connection -> connection.scriptingCommands().scriptLoad(script));
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (UUID userId : misses) {
+                List<String> keysAndArgs = new ArrayList<>(List.of("user_service:" + userId, AVAILABLE_SERVICES_KEY));
+                keysAndArgs.addAll(scriptArgs(userId, unavailable));
+                connection.scriptingCommands().evalSha(ASSIGN_USER_SCRIPT.getSha1(), ReturnType.MULTI, 2,
+                        keysAndArgs.stream().map(value -> value.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new));
             }
+            return null;
+        }, null);
+
+        for (int i = 0; i < misses.size(); i++) {
+            assignments.put(misses.get(i), toAssignment(misses.get(i), (List<?>) results.get(i)));
         }
-        throw new RuntimeException("No alive services found after multiple attempts");
+        logger.debug("Resolved {} assignments, {} through the assignment script", users.size(), misses.size());
+        return assignments;
     }
 
-    private boolean isInstanceAlive(UUID instanceId) {
-        String key = "service:alive:" + instanceId;
-        String timestampStr = redisTemplate.opsForValue().get(key);
+    private List<String> scriptArgs(UUID userId, Map<String, PhiAccrualDetector.State> unavailable) {
+        List<String> args = new ArrayList<>(List.of(userId.toString(), String.valueOf(MAX_SELECTION_ROUNDS)));
+        args.addAll(assignmentPolicy.scriptArgs());
+        unavailable.forEach((serviceId, state) -> args.add(state + ":" + serviceId));
+        return args;
+    }
 
-        if (timestampStr == null) {
-            logger.warn("No heartbeat found for instance: {}", instanceId);
-            return false;
+    // Pipelined replies are not deserialized, so values may still be raw bytes
+    private ServiceAssignment toAssignment(UUID userId, List<?> result) {
+        if (result == null || result.size() < 3) {
+            throw new IllegalStateException("Unexpected reply from assignment script: " + result);
         }
 
-        try {
-            long lastHeartbeat = Long.parseLong(timestampStr);
-            long now = System.currentTimeMillis();
-            // Threshold: 1.5 seconds (1500ms)
-            long threshold = 1500;
-
-            if (now - lastHeartbeat > threshold) {
-                logger.warn("Instance {} is dead. Last heartbeat: {}, Now: {}", instanceId, lastHeartbeat, now);
-                return false;
-            }
+        // The script already moved these to dead_services; ExpirySweeper cleans them up
+        for (Object deadId : result.subList(3, result.size())) {
+            logger.warn("Service {} is dead, skipped for assignment", asString(deadId));
+        }
 
-            return true;
-        } catch (NumberFormatException e) {
-            logger.error("Invalid timestamp for instance {}: {}", instanceId, timestampStr);
-            return false;
+        String serviceId = asString(result.get(0));
+        if (serviceId.isEmpty()) {
+            logger.error("No alive services found in registry");
+            throw new RuntimeException("No services available to assign");
         }
+        if ((Long) result.get(2) == 1L) {
+            logger.info("Assigned service ID {} to user {} ({})", serviceId, userId, assignmentPolicy.getStrategy());
+        }
+
+        String address = asString(result.get(1));
+        return new ServiceAssignment(UUID.fromString(serviceId), address.isEmpty() ? null : address);
     }
 
-    private void cacheServiceId(String key, UUID serviceId) {
-        redisTemplate.opsForValue().set(key, serviceId.toString());
+    private static String asString(Object value) {
+        return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
     }
 
+    /**
+     * Removes an instance and all of its assignments. Users are read with SSCAN and
+     * their keys unlinked in pipelined chunks, so even an instance with tens of
+     * thousands of users never blocks Redis or holds the whole set in memory.
+     */
     public void handleServiceExpiration(UUID serviceId) {
         logger.info("Handling expiration for service ID: {}", serviceId);
         redisTemplate.opsForSet().remove(AVAILABLE_SERVICES_KEY, serviceId.toString());
-        redisTemplate.delete("service_address:" + serviceId);
 
         String reverseIndexKey = "service_users:" + serviceId;
-        Set<String> userIds = redisTemplate.opsForSet().members(reverseIndexKey);
-
-        if (userIds != null && !userIds.isEmpty()) {
-            logger.info("Cleaning up {} users assigned to expired service {}", userIds.size(), serviceId);
-            for (String userId : userIds) {
-                redisTemplate.delete("user_service:" + userId);
+        List<String> chunk = new ArrayList<>(CLEANUP_CHUNK_SIZE);
+        long cleaned = 0;
+        try (Cursor<String> userIds = redisTemplate.opsForSet().scan(reverseIndexKey,
+                ScanOptions.scanOptions().count(CLEANUP_CHUNK_SIZE).build())) {
+            while (userIds.hasNext()) {
+                chunk.add(userIds.next());
+                if (chunk.size() == CLEANUP_CHUNK_SIZE) {
+                    cleaned += unlinkAssignments(chunk);
+                    // The pipeline callback keeps the list it was given, so never reuse it
+                    chunk = new ArrayList<>(CLEANUP_CHUNK_SIZE);
+                }
             }
-        } else {
-            logger.info("No users found assigned to expired service {}", serviceId);
         }
+        cleaned += unlinkAssignments(chunk);
+        logger.info("Cleaned up {} users assigned to expired service {}", cleaned, serviceId);
+
+        redisTemplate.unlink(List.of("service_address:" + serviceId, "service_internal_address:" + serviceId,
+                reverseIndexKey));
+        redisTemplate.opsForSet().remove(DEAD_SERVICES_KEY, serviceId.toString());
+    }
 
-        redisTemplate.delete(reverseIndexKey);
+    private int unlinkAssignments(List<String> userIds) {
+        int count = userIds.size();
+        if (count > 0) {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String userId : userIds) {
+                    connection.keyCommands().unlink(("user_service:" + userId).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        }
+        return count;
     }
 }
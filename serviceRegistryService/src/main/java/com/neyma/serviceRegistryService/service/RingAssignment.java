@@ -0,0 +1,80 @@
+package com.neyma.serviceRegistryService.service;
+
+import com.neyma.serviceRegistryService.dto.ServiceAssignment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Optional assignment mode (registry.assignment.mode=ring): users are mapped onto
+ * the live instances with a consistent-hash ring instead of a stored
+ * user_service:<userId> key. The ring follows membership by diffing the
+ * {@link LiveInstanceSnapshot} on every refresh and only adding or removing the instances that
+ * changed, so an instance joining or leaving moves about 1/N of the users.
+ */
+@Component
+public class RingAssignment {
+
+    private static final Logger logger = LoggerFactory.getLogger(RingAssignment.class);
+
+    private final LiveInstanceSnapshot liveInstances;
+    private final boolean enabled;
+    private final HashRing ring;
+
+    public RingAssignment(
+            LiveInstanceSnapshot liveInstances,
+            @Value("${registry.assignment.mode:stored}") String mode,
+            @Value("${registry.ring.virtual-nodes:160}") int virtualNodes) {
+        this.liveInstances = liveInstances;
+        this.enabled = "ring".equalsIgnoreCase(mode);
+        this.ring = new HashRing(virtualNodes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public ServiceAssignment assign(UUID userId) {
+        String serviceId = ring.nodeFor(userId.toString());
+        if (serviceId == null) {
+            // Startup, or every instance went away since the last refresh
+            liveInstances.refresh();
+            refresh();
+            serviceId = ring.nodeFor(userId.toString());
+        }
+        if (serviceId == null) {
+            logger.error("No alive services found in registry");
+            throw new RuntimeException("No services available to assign");
+        }
+        return new ServiceAssignment(UUID.fromString(serviceId), liveInstances.current().address(serviceId));
+    }
+
+    // Diffs the ring against the latest snapshot; no Redis access
+    @Scheduled(fixedDelayString = "${registry.ring.refresh-interval:PT0.5S}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        // Suspect instances stay on the ring so their users don't move on a hiccup
+        Set<String> alive = liveInstances.current().registered().stream()
+                .filter(serviceId -> liveInstances.state(serviceId) != PhiAccrualDetector.State.DEAD)
+                .collect(Collectors.toSet());
+
+        for (String node : ring.nodes()) {
+            if (!alive.contains(node) && ring.remove(node)) {
+                logger.info("Removed service {} from the assignment ring", node);
+            }
+        }
+        for (String node : alive) {
+            if (ring.add(node)) {
+                logger.info("Added service {} to the assignment ring", node);
+            }
+        }
+    }
+}
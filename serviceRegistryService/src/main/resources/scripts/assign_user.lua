@@ -0,0 +1,113 @@
+-- Resolves (and if needed creates) a user's messagingService assignment in one call.
+-- KEYS[1] user_service:<userId>   KEYS[2] available_services
+-- ARGV[1] userId   ARGV[2] max selection rounds
+-- ARGV[3] strategy (RANDOM | POWER_OF_CHOICES | LEAST_LOADED)   ARGV[4] choices
+-- ARGV[5..7] weights for sessions, queued KiB and CPU percent (see AssignmentPolicy)
+-- ARGV[8..] 'SUSPECT:<id>' / 'DEAD:<id>' as judged by the registry's failure detector
+-- Returns {serviceId, address, assigned (0/1), deadId...}; serviceId is '' when no
+-- alive instance was found.
+-- Besides KEYS it touches service:alive:*, service:load:*, service_users:*,
+-- service_address:* of the candidates it picks and dead_services. Candidates are only
+-- known inside the script, so these cannot be declared up front: the registry runs on
+-- a standalone Redis only, which RedisConfig enforces at startup.
+local strategy = ARGV[3]
+local choices = tonumber(ARGV[4])
+local sessionWeight, queueKbWeight, cpuWeight = tonumber(ARGV[5]), tonumber(ARGV[6]), tonumber(ARGV[7])
+local states = {}
+for i = 8, #ARGV do
+    local state, id = string.match(ARGV[i], '^(%u+):(.+)$')
+    states[id] = state
+end
+local dead = {}
+
+-- An expired heartbeat key is dead regardless of what the detector has seen so far
+local function alive(id)
+    return states[id] ~= 'DEAD' and redis.call('EXISTS', 'service:alive:' .. id) == 1
+end
+
+-- Suspect instances keep their users but get no new ones
+local function eligible(id)
+    return states[id] == nil
+end
+
+-- Dead instances leave the pool right away so concurrent assigners skip them;
+-- the expiry sweeper cleans up their assignments.
+local function markDead(id)
+    redis.call('SMOVE', KEYS[2], 'dead_services', id)
+    dead[#dead + 1] = id
+end
+
+-- Instances that have not reported load yet score 0, so new instances fill up first
+local function score(id)
+    local load = redis.call('HMGET', 'service:load:' .. id, 'sessions', 'queue_bytes', 'cpu')
+    return sessionWeight * (tonumber(load[1]) or 0)
+        + queueKbWeight * (tonumber(load[2]) or 0) / 1024
+        + cpuWeight * (tonumber(load[3]) or 0) * 100
+end
+
+local function candidates()
+    if strategy == 'LEAST_LOADED' then
+        return redis.call('SMEMBERS', KEYS[2])
+    end
+    return redis.call('SRANDMEMBER', KEYS[2], choices)
+end
+
+local function reply(serviceId, address, assigned)
+    local result = { serviceId, address, assigned }
+    for _, id in ipairs(dead) do
+        result[#result + 1] = id
+    end
+    return result
+end
+
+local serviceId = redis.call('GET', KEYS[1])
+if serviceId and not alive(serviceId) then
+    markDead(serviceId)
+    -- Keep the pending cleanup of the dead instance from wiping the new assignment
+    redis.call('SREM', 'service_users:' .. serviceId, ARGV[1])
+    serviceId = false
+end
+
+local assigned = 0
+if not serviceId then
+    local fallback
+    for _ = 1, tonumber(ARGV[2]) do
+        local picked = candidates()
+        if #picked == 0 then
+            break
+        end
+        local best, bestScore
+        for _, candidate in ipairs(picked) do
+            if not alive(candidate) then
+                markDead(candidate)
+            elseif eligible(candidate) then
+                local candidateScore = strategy == 'RANDOM' and 0 or score(candidate)
+                if not best or candidateScore < bestScore then
+                    best, bestScore = candidate, candidateScore
+                end
+            else
+                fallback = fallback or candidate
+            end
+        end
+        if best then
+            serviceId = best
+            break
+        end
+    end
+    -- Better a suspect instance than no assignment at all
+    serviceId = serviceId or fallback
+    if not serviceId then
+        return reply('', '', 0)
+    end
+    redis.call('SET', KEYS[1], serviceId)
+    redis.call('SADD', 'service_users:' .. serviceId, ARGV[1])
+    -- Count the new session until the next heartbeat reports the real figure, so a
+    -- burst of connects does not pile onto the same instance
+    local loadKey = 'service:load:' .. serviceId
+    if redis.call('EXISTS', loadKey) == 1 then
+        redis.call('HINCRBY', loadKey, 'sessions', 1)
+    end
+    assigned = 1
+end
+
+return reply(serviceId, redis.call('GET', 'service_address:' .. serviceId) or '', assigned)
@@ -0,0 +1,56 @@
+package com.neyma.serviceRegistryService.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssignmentTicketsTest {
+
+    private static final String SECRET = "test-secret-of-at-least-32-bytes";
+
+    @Test
+    void issue_SignsUserInstanceAndExpiry() throws Exception {
+        UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
+        UUID serviceId = UUID.fromString("00000000-0000-0000-0000-000000000123");
+        long before = System.currentTimeMillis();
+
+        String ticket = new AssignmentTickets(SECRET, Duration.ofMinutes(10)).issue(userId, serviceId);
+
+        String[] parts = ticket.split("\\.");
+        assertEquals(2, parts.length);
+        byte[] claims = Base64.getUrlDecoder().decode(parts[0]);
+        String[] fields = new String(claims, StandardCharsets.UTF_8).split(":");
+        assertEquals(userId.toString(), fields[0]);
+        assertEquals(serviceId.toString(), fields[1]);
+        long expiresAt = Long.parseLong(fields[2]);
+        assertTrue(expiresAt >= before + Duration.ofMinutes(10).toMillis());
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        assertArrayEquals(mac.doFinal(claims), Base64.getUrlDecoder().decode(parts[1]));
+    }
+
+    @Test
+    void issue_DifferentSecretsProduceDifferentSignatures() {
+        UUID userId = UUID.randomUUID();
+        UUID serviceId = UUID.randomUUID();
+
+        String first = new AssignmentTickets(SECRET, Duration.ofDays(1)).issue(userId, serviceId);
+        String second = new AssignmentTickets("other-secret-of-at-least-32-bytes", Duration.ofDays(1)).issue(userId, serviceId);
+
+        assertNotEquals(first.split("\\.")[1], second.split("\\.")[1]);
+    }
+
+    @Test
+    void constructor_RejectsMissingOrShortSecret() {
+        assertThrows(IllegalStateException.class, () -> new AssignmentTickets("", Duration.ofMinutes(10)));
+        assertThrows(IllegalStateException.class, () -> new AssignmentTickets("local-dev-ticket-secret", Duration.ofMinutes(10)));
+    }
+}
@@ -0,0 +1,108 @@
+package com.neyma.serviceRegistryService.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+    private static final int KEYS = 10_000;
+
+    private HashRing ring;
+    private List<String> keys;
+
+    @BeforeEach
+    void setUp() {
+        ring = new HashRing(160);
+        keys = IntStream.range(0, KEYS)
+                .mapToObj(i -> new UUID(0, i).toString())
+                .toList();
+    }
+
+    @Test
+    void nodeFor_ReturnsNullForEmptyRing() {
+        assertNull(ring.nodeFor("user"));
+    }
+
+    @Test
+    void nodeFor_IsDeterministic() {
+        ring.add("a");
+        ring.add("b");
+        ring.add("c");
+
+        HashRing other = new HashRing(160);
+        other.add("c");
+        other.add("a");
+        other.add("b");
+
+        keys.forEach(key -> assertEquals(ring.nodeFor(key), other.nodeFor(key)));
+    }
+
+    @Test
+    void nodeFor_SpreadsKeysEvenly() {
+        List.of("a", "b", "c", "d").forEach(ring::add);
+
+        Map<String, Integer> counts = new HashMap<>();
+        keys.forEach(key -> counts.merge(ring.nodeFor(key), 1, Integer::sum));
+
+        assertEquals(4, counts.size());
+        counts.values().forEach(count -> assertTrue(count > KEYS * 0.15 && count < KEYS * 0.35,
+                "unbalanced ring: " + counts));
+    }
+
+    @Test
+    void add_OnlyMovesKeysToNewNode() {
+        List.of("a", "b", "c", "d").forEach(ring::add);
+        Map<String, String> before = owners();
+
+        assertTrue(ring.add("e"));
+
+        int moved = 0;
+        for (String key : keys) {
+            String owner = ring.nodeFor(key);
+            if (!owner.equals(before.get(key))) {
+                assertEquals("e", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS * 0.1 && moved < KEYS * 0.3, "moved " + moved);
+    }
+
+    @Test
+    void remove_OnlyMovesKeysOfRemovedNode() {
+        List.of("a", "b", "c", "d").forEach(ring::add);
+        Map<String, String> before = owners();
+
+        assertTrue(ring.remove("b"));
+
+        for (String key : keys) {
+            String owner = ring.nodeFor(key);
+            assertNotEquals("b", owner);
+            if (!"b".equals(before.get(key))) {
+                assertEquals(before.get(key), owner);
+            }
+        }
+    }
+
+    @Test
+    void addAndRemove_IgnoreUnchangedMembership() {
+        assertTrue(ring.add("a"));
+        assertFalse(ring.add("a"));
+        assertFalse(ring.remove("b"));
+        assertTrue(ring.remove("a"));
+        assertTrue(ring.nodes().isEmpty());
+    }
+
+    private Map<String, String> owners() {
+        Map<String, String> owners = new HashMap<>();
+        keys.forEach(key -> owners.put(key, ring.nodeFor(key)));
+        return owners;
+    }
+}
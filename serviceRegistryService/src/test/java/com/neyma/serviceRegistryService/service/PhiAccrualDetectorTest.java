@@ -0,0 +1,106 @@
+package com.neyma.serviceRegistryService.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhiAccrualDetectorTest {
+
+    private static final String INSTANCE = "instance";
+
+    private PhiAccrualDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        detector = new PhiAccrualDetector(3, 10, 100, 250, 1000, 1000);
+    }
+
+    @Test
+    void state_IsDeadForUnknownInstance() {
+        assertEquals(PhiAccrualDetector.State.DEAD, detector.state(INSTANCE, 0));
+    }
+
+    @Test
+    void state_FollowsPauseAfterRegularHeartbeats() {
+        long last = beat(1000, 1000, 20);
+
+        assertEquals(PhiAccrualDetector.State.ALIVE, detector.state(INSTANCE, last + 1000));
+        // A single missed beat plus a GC pause is not enough to evict anyone
+        assertEquals(PhiAccrualDetector.State.ALIVE, detector.state(INSTANCE, last + 2200));
+        assertEquals(PhiAccrualDetector.State.SUSPECT, detector.state(INSTANCE, last + 2900));
+        assertEquals(PhiAccrualDetector.State.DEAD, detector.state(INSTANCE, last + 4500));
+    }
+
+    @Test
+    void phi_GrowsWithTimeSinceLastHeartbeat() {
+        long last = beat(1000, 1000, 20);
+
+        double phi = 0;
+        for (long elapsed = 500; elapsed <= 5000; elapsed += 500) {
+            double next = detector.phi(INSTANCE, last + elapsed);
+            assertTrue(next >= phi, "phi decreased at " + elapsed);
+            phi = next;
+        }
+    }
+
+    @Test
+    void state_ToleratesLongerPausesForJitteryInstances() {
+        long timestamp = 1000;
+        detector.heartbeat(INSTANCE, timestamp, timestamp);
+        for (int i = 0; i < 40; i++) {
+            timestamp += i % 2 == 0 ? 500 : 1500;
+            detector.heartbeat(INSTANCE, timestamp, timestamp);
+        }
+
+        assertEquals(PhiAccrualDetector.State.ALIVE, detector.state(INSTANCE, timestamp + 2900));
+    }
+
+    @Test
+    void heartbeat_IgnoresRepeatedValue() {
+        long last = beat(1000, 1000, 20);
+        double before = detector.phi(INSTANCE, last + 2000);
+
+        // The snapshot sees the same heartbeat on every refresh until the next beat
+        detector.heartbeat(INSTANCE, last, last + 250);
+        detector.heartbeat(INSTANCE, last, last + 500);
+
+        assertEquals(before, detector.phi(INSTANCE, last + 2000));
+    }
+
+    @Test
+    void heartbeat_UsesArrivalTimeNotInstanceClock() {
+        // The instance's clock is an hour behind and steps back once
+        long arrival = 1000;
+        long value = arrival - 3_600_000;
+        for (int i = 0; i < 20; i++) {
+            detector.heartbeat(INSTANCE, value, arrival);
+            value += i == 10 ? -5000 : 1000;
+            arrival += 1000;
+        }
+        long last = arrival - 1000;
+
+        assertEquals(PhiAccrualDetector.State.ALIVE, detector.state(INSTANCE, last + 1000));
+        assertEquals(PhiAccrualDetector.State.DEAD, detector.state(INSTANCE, last + 4500));
+    }
+
+    @Test
+    void retain_ForgetsRemovedInstances() {
+        long last = beat(1000, 1000, 5);
+
+        detector.retain(Set.of("other"));
+
+        assertEquals(PhiAccrualDetector.State.DEAD, detector.state(INSTANCE, last));
+    }
+
+    private long beat(long start, long interval, int count) {
+        long timestamp = start;
+        for (int i = 0; i < count; i++) {
+            detector.heartbeat(INSTANCE, timestamp, timestamp);
+            timestamp += interval;
+        }
+        return timestamp - interval;
+    }
+}
@@ -1,18 +1,31 @@
 package com.neyma.serviceRegistryService.service;
 
 import com.neyma.serviceRegistryService.dto.ServiceAssignment;
+import com.neyma.serviceRegistryService.dto.ServiceInstance;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.OngoingStubbing;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.SetOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -33,11 +46,19 @@ class RegistryServiceTest {
     @Mock
     private ValueOperations<String, String> valueOperations;
 
-    @InjectMocks
+    @Mock
+    private RingAssignment ringAssignment;
+
+    @Mock
+    private LiveInstanceSnapshot liveInstances;
+
     private RegistryService registryService;
 
     @BeforeEach
     void setUp() {
+        registryService = new RegistryService(redisTemplate,
+                new AssignmentPolicy(AssignmentPolicy.Strategy.POWER_OF_CHOICES, 2, 1.0, 0.5, 2.0), ringAssignment, liveInstances);
+        lenient().when(liveInstances.current()).thenReturn(LiveInstanceSnapshot.Snapshot.EMPTY);
         lenient().when(redisTemplate.opsForSet()).thenReturn(setOperations);
         lenient().when(redisTemplate.opsForValue()).thenReturn(valueOperations);
         // Mock execute to simulate alive instance
@@ -56,59 +77,176 @@ class RegistryServiceTest {
         verify(valueOperations).set("service_address:" + serviceId, address);
     }
 
+    @Test
+    void getServiceInstance_ReturnsAddressesOfRegisteredInstance() {
+        UUID serviceId = UUID.fromString("00000000-0000-0000-0000-000000000123");
+        when(valueOperations.multiGet(List.of("service_address:" + serviceId, "service_internal_address:" + serviceId)))
+                .thenReturn(Arrays.asList("ws://localhost:8085/ws", "ws://messaging-service:8080/ws"));
+
+        ServiceInstance instance = registryService.getServiceInstance(serviceId);
+
+        assertEquals(new ServiceInstance(serviceId, "ws://localhost:8085/ws", "ws://messaging-service:8080/ws"), instance);
+    }
+
+    @Test
+    void getServiceInstance_ReturnsNullForUnknownInstance() {
+        UUID serviceId = UUID.fromString("00000000-0000-0000-0000-000000000123");
+        when(valueOperations.multiGet(anyList())).thenReturn(Arrays.asList((String) null, null));
+
+        assertNull(registryService.getServiceInstance(serviceId));
+    }
+
     @Test
     void getServiceAssignment_ReturnsCachedServiceId() {
         UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
         UUID cachedId = UUID.fromString("00000000-0000-0000-0000-000000000123");
+        whenAssignScriptRunsFor(userId).thenReturn(List.of(cachedId.toString(), "addr", 0L));
+
+        ServiceAssignment result = registryService.getServiceAssignment(userId);
+
+        assertEquals(cachedId, result.getServiceId());
+        assertEquals("addr", result.getAddress());
+        verifyNoInteractions(setOperations);
+    }
+
+    @Test
+    void getServiceAssignment_KeepsUsersOfSuspectInstanceWithoutScript() {
+        UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
+        UUID cachedId = UUID.fromString("00000000-0000-0000-0000-000000000123");
+        long now = System.currentTimeMillis();
         when(valueOperations.get("user_service:" + userId)).thenReturn(cachedId.toString());
-        when(valueOperations.get("service_address:" + cachedId)).thenReturn("addr");
+        when(liveInstances.state(cachedId.toString())).thenReturn(PhiAccrualDetector.State.SUSPECT);
+        when(liveInstances.current()).thenReturn(new LiveInstanceSnapshot.Snapshot(Set.of(cachedId.toString()),
+                Map.of(cachedId.toString(), now - 200), Map.of(cachedId.toString(), "addr"), now));
 
         ServiceAssignment result = registryService.getServiceAssignment(userId);
 
         assertEquals(cachedId, result.getServiceId());
         assertEquals("addr", result.getAddress());
-        verify(setOperations, never()).randomMember(anyString());
+        verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), any(Object[].class));
     }
 
     @Test
     void getServiceAssignment_AssignsRandomServiceWhenNotCached() {
         UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
         UUID randomId = UUID.fromString("00000000-0000-0000-0000-000000000789");
-
-        when(valueOperations.get("user_service:" + userId)).thenReturn(null);
-        when(setOperations.randomMember("available_services")).thenReturn(randomId.toString());
-        when(valueOperations.get("service_address:" + randomId)).thenReturn("addr");
+        whenAssignScriptRunsFor(userId).thenReturn(List.of(randomId.toString(), "addr", 1L));
 
         ServiceAssignment result = registryService.getServiceAssignment(userId);
 
         assertEquals(randomId, result.getServiceId());
         assertEquals("addr", result.getAddress());
-        verify(valueOperations).set("user_service:" + userId, randomId.toString());
-        verify(setOperations).add("service_users:" + randomId, userId.toString());
+    }
+
+    @Test
+    void getServiceAssignment_LeavesDeadInstanceCleanupToSweeper() {
+        UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
+        UUID aliveId = UUID.fromString("00000000-0000-0000-0000-000000000789");
+        UUID deadId = UUID.fromString("00000000-0000-0000-0000-000000000123");
+        whenAssignScriptRunsFor(userId).thenReturn(List.of(aliveId.toString(), "addr", 1L, deadId.toString()));
+
+        ServiceAssignment result = registryService.getServiceAssignment(userId);
+
+        assertEquals(aliveId, result.getServiceId());
+        verifyNoInteractions(setOperations);
+        verify(redisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void getServiceAssignment_PassesUnavailableInstancesToScript() {
+        UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
+        UUID aliveId = UUID.fromString("00000000-0000-0000-0000-000000000789");
+        when(liveInstances.unavailable()).thenReturn(Map.of("suspect-id", PhiAccrualDetector.State.SUSPECT));
+        when((List<Object>) redisTemplate.execute(any(RedisScript.class),
+                eq(List.of("user_service:" + userId, "available_services")),
+                eq(userId.toString()), eq("10"),
+                eq("POWER_OF_CHOICES"), eq("2"), eq("1.0"), eq("0.5"), eq("2.0"), eq("SUSPECT:suspect-id")))
+                .thenReturn(List.of(aliveId.toString(), "addr", 1L));
+
+        ServiceAssignment result = registryService.getServiceAssignment(userId);
+
+        assertEquals(aliveId, result.getServiceId());
     }
 
     @Test
     void getServiceAssignment_ThrowsExceptionWhenNoServicesAvailable() {
         UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000456");
-        when(valueOperations.get("user_service:" + userId)).thenReturn(null);
-        when(setOperations.randomMember("available_services")).thenReturn(null);
+        whenAssignScriptRunsFor(userId).thenReturn(List.of("", "", 0L));
 
         assertThrows(RuntimeException.class, () -> registryService.getServiceAssignment(userId));
     }
 
     @Test
+    @SuppressWarnings("unchecked")
+    void getServiceAssignments_AssignsOnlyUsersWithoutLiveAssignment() {
+        UUID cachedUser = UUID.fromString("00000000-0000-0000-0000-000000000456");
+        UUID deadUser = UUID.fromString("00000000-0000-0000-0000-000000000457");
+        UUID newUser = UUID.fromString("00000000-0000-0000-0000-000000000458");
+        String aliveId = "00000000-0000-0000-0000-000000000123";
+        String deadId = "00000000-0000-0000-0000-000000000124";
+        UUID assignedId = UUID.fromString("00000000-0000-0000-0000-000000000789");
+        long now = System.currentTimeMillis();
+        when(valueOperations.multiGet(List.of("user_service:" + cachedUser, "user_service:" + deadUser,
+                "user_service:" + newUser))).thenReturn(Arrays.asList(aliveId, deadId, null));
+        when(liveInstances.current()).thenReturn(new LiveInstanceSnapshot.Snapshot(Set.of(aliveId, deadId),
+                Map.of(aliveId, now), Map.of(aliveId, "addr"), now));
+        when(liveInstances.unavailable()).thenReturn(Map.of(deadId, PhiAccrualDetector.State.DEAD));
+        byte[] assigned = assignedId.toString().getBytes(StandardCharsets.UTF_8);
+        when(redisTemplate.executePipelined(any(RedisCallback.class), isNull()))
+                .thenReturn(List.of(List.of(assigned, "addr2".getBytes(StandardCharsets.UTF_8), 1L),
+                        List.of(assigned, "addr2".getBytes(StandardCharsets.UTF_8), 1L)));
+
+        Map<UUID, ServiceAssignment> result = registryService.getServiceAssignments(
+                List.of(cachedUser, deadUser, newUser, cachedUser));
+
+        assertEquals(List.of(cachedUser, deadUser, newUser), List.copyOf(result.keySet()));
+        assertEquals(new ServiceAssignment(UUID.fromString(aliveId), "addr"), result.get(cachedUser));
+        assertEquals(new ServiceAssignment(assignedId, "addr2"), result.get(deadUser));
+        assertEquals(new ServiceAssignment(assignedId, "addr2"), result.get(newUser));
+
+        ArgumentCaptor<RedisCallback<Object>> pipeline = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redisTemplate).executePipelined(pipeline.capture(), isNull());
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisScriptingCommands scriptingCommands = mock(RedisScriptingCommands.class);
+        when(connection.scriptingCommands()).thenReturn(scriptingCommands);
+        pipeline.getValue().doInRedis(connection);
+        verify(scriptingCommands, times(2)).evalSha(anyString(), eq(ReturnType.MULTI), eq(2), any(byte[][].class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private OngoingStubbing<List<Object>> whenAssignScriptRunsFor(UUID userId) {
+        return when((List<Object>) redisTemplate.execute(any(RedisScript.class),
+                eq(List.of("user_service:" + userId, "available_services")),
+                eq(userId.toString()), eq("10"),
+                eq("POWER_OF_CHOICES"), eq("2"), eq("1.0"), eq("0.5"), eq("2.0")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
     void handleServiceExpiration_RemovesServiceAndCleansUpUsers() {
         UUID serviceId = UUID.fromString("00000000-0000-0000-0000-000000000123");
-        Set<String> userIds = Set.of("1", "2", "3");
-        when(setOperations.members("service_users:" + serviceId)).thenReturn(userIds);
+        Cursor<String> userIds = mock(Cursor.class);
+        when(userIds.hasNext()).thenReturn(true, true, true, false);
+        when(userIds.next()).thenReturn("1", "2", "3");
+        when(setOperations.scan(eq("service_users:" + serviceId), any(ScanOptions.class))).thenReturn(userIds);
 
         registryService.handleServiceExpiration(serviceId);
 
+        ArgumentCaptor<RedisCallback<Object>> pipeline = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redisTemplate).executePipelined(pipeline.capture());
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisKeyCommands keyCommands = mock(RedisKeyCommands.class);
+        when(connection.keyCommands()).thenReturn(keyCommands);
+        pipeline.getValue().doInRedis(connection);
+        verify(keyCommands).unlink("user_service:1".getBytes(StandardCharsets.UTF_8));
+        verify(keyCommands).unlink("user_service:2".getBytes(StandardCharsets.UTF_8));
+        verify(keyCommands).unlink("user_service:3".getBytes(StandardCharsets.UTF_8));
+
         verify(setOperations).remove("available_services", serviceId.toString());
-        verify(redisTemplate).delete("service_address:" + serviceId);
-        verify(redisTemplate).delete("user_service:1");
-        verify(redisTemplate).delete("user_service:2");
-        verify(redisTemplate).delete("user_service:3");
-        verify(redisTemplate).delete("service_users:" + serviceId);
+        verify(redisTemplate).unlink(List.of("service_address:" + serviceId, "service_internal_address:" + serviceId,
+                "service_users:" + serviceId));
+        verify(setOperations).remove("dead_services", serviceId.toString());
+        verify(userIds).close();
     }
 }
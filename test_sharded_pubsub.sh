@@ -0,0 +1,26 @@
+#!/bin/bash
+
+# Checks that inbox channels spread over the cluster shards and that a sharded
+# publish only reaches the shard owning the channel.
+# Start the cluster first: docker compose -f docker-compose.yml -f docker-compose.redis-cluster.yml up -d
+NODE=${NODE:-redis-node-0}
+CHANNELS=${CHANNELS:-1000}
+CLI="docker compose -f docker-compose.yml -f docker-compose.redis-cluster.yml exec -T $NODE redis-cli"
+
+echo "1. Cluster state"
+$CLI --cluster check "$NODE:6379" | grep -E "^[MS]:|slots|OK"
+
+# The cluster creator splits the slots evenly over the three masters
+echo "2. Distribution of $CHANNELS inbox channels over masters"
+for i in $(seq 1 "$CHANNELS"); do
+  $CLI cluster keyslot "inbox:instance:$(cat /proc/sys/kernel/random/uuid)"
+done | awk '{ print int($1 / 5462) }' | sort | uniq -c | awk '{ print "  master " $2 ": " $1 " channels" }'
+
+echo "3. Sharded round trip"
+CHANNEL="inbox:instance:$(cat /proc/sys/kernel/random/uuid)"
+timeout 3 $CLI -c ssubscribe "$CHANNEL" > /tmp/sharded_sub.out &
+sleep 1
+RECEIVERS=$($CLI -c spublish "$CHANNEL" '[{"receiver":"check"}]')
+wait
+echo "SPUBLISH reached $RECEIVERS subscriber(s)"
+grep -q 'receiver' /tmp/sharded_sub.out && echo "OK: message received on $CHANNEL" || echo "FAIL: nothing received"